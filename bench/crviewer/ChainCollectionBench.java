@@ -0,0 +1,128 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/* Benchmark of the construction of chain collections on a large corpus.
+ *
+ * Writes a synthetic text of `total' annotations (1000000 by default), in
+ * parts of PARAGRAPHS_PER_PART paragraphs of ANNOTATIONS_PER_PARAGRAPH
+ * annotations, and times the construction of the collection of all the
+ * chains (min size 1) for each way of splitting the corpus.  Referents are
+ * drawn either from the REFERENTS_PER_PART referents of the part or from
+ * the GLOBAL_REFERENTS referents of the whole text, with a skewed
+ * distribution, so that there are a few long chains and many short ones, as
+ * in real texts.  The seed is fixed: the corpus is the same for each run.
+ * Compile and run it against the compiled program classes (here in
+ * `classes'), with a heap large enough for the corpus:
+ *
+ *    javac -cp classes -d classes bench/crviewer/ChainCollectionBench.java
+ *    java -Xmx4g -cp classes crviewer.ChainCollectionBench [total] [file]
+ *
+ * If a file is given, the synthetic text is written there and kept.
+ */
+public class ChainCollectionBench {
+
+   private static final int ROUNDS = 3;
+   private static final int PARAGRAPHS_PER_PART = 50;
+   private static final int ANNOTATIONS_PER_PARAGRAPH = 20;
+   private static final int REFERENTS_PER_PART = 200;
+   private static final int GLOBAL_REFERENTS = 2000;
+   private static final String[] CATEGORIES = new String[] {
+      "d nom défini", "i nom indéfini", "p nom possessif", "s pronom personnel",
+      "z pronom zéro", "e déterminant possessif" };
+   private static final String[] FUNCTIONS = new String[] {
+      "s sujet", "v compl (verbe)", "n compl (nom)", "c circonstant" };
+
+   public static void main(String[] args) throws IOException,ParseException {
+      int total = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+      File file;
+      if (args.length > 1) {
+         file = new File(args[1]);
+      } else {
+         file = File.createTempFile("chains_", ".txt");
+         file.deleteOnExit();
+      }
+      long start = System.nanoTime();
+      writeText(file, total);
+      System.out.println("Generated " + file + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+      ArrayList<String> filenames = new ArrayList<>();
+      filenames.add(file.getPath());
+      start = System.nanoTime();
+      Corpus corpus = new CorpusLoader().load(filenames);
+      System.out.println("Loaded " + corpus.getAnnotations().size() + " annotations in "
+         + (System.nanoTime() - start) / 1000000 + " ms");
+      for (SplitByType splitBy : SplitByType.values()) {
+         for (int round = 1; round <= ROUNDS; round++) {
+            start = System.nanoTime();
+            ChainCollection chainColl = new ChainCollection(corpus, splitBy, new ChainFilter(1));
+            long time = (System.nanoTime() - start) / 1000000;
+            System.out.println(splitBy + ", round " + round + ": "
+               + chainColl.getChains().length + " chains, " + time + " ms");
+         }
+      }
+   }
+
+   /* Each paragraph is a sequence of annotations separated by plain words:
+    * {r<part>_<referent>:categorie="...",fonction="..." word} and ...
+    * where global referents are named g<referent> instead.  Parts are
+    * separated by a line of stars.
+    */
+   private static void writeText(File file, int total) throws IOException {
+      Random random = new Random(42);
+      int paragraphCount = Math.max(1, total / ANNOTATIONS_PER_PARAGRAPH);
+      try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+         writer.println("#textid:synthetic");
+         for (int p = 0; p < paragraphCount; p++) {
+            int part = p / PARAGRAPHS_PER_PART;
+            if (p > 0 && p % PARAGRAPHS_PER_PART == 0) {
+               writer.println();
+               writer.println("*****");
+            }
+            writer.println();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < ANNOTATIONS_PER_PARAGRAPH; i++) {
+               double r = random.nextDouble();
+               if (random.nextInt(4) == 0) {
+                  line.append("{g").append((int)(r * r * r * GLOBAL_REFERENTS));
+               } else {
+                  line.append("{r").append(part).append('_').append((int)(r * r * r * REFERENTS_PER_PART));
+               }
+               line.append(":categorie=\"").append(CATEGORIES[random.nextInt(CATEGORIES.length)])
+                  .append("\",fonction=\"").append(FUNCTIONS[random.nextInt(FUNCTIONS.length)])
+                  .append("\" word").append(i).append("} and ");
+            }
+            line.append("end.");
+            writer.println(line);
+         }
+      }
+   }
+
+}
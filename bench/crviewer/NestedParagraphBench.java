@@ -0,0 +1,92 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+
+/* Benchmark of the parsing of deeply nested annotations.
+ *
+ * Writes synthetic paragraphs where each annotation is nested in the previous
+ * one, `depth' levels deep, with `total' annotations in all, and times the
+ * parsing of the file for each depth.  Compile and run it against the
+ * compiled program classes (here in `classes'):
+ *
+ *    javac -cp classes -d classes bench/crviewer/NestedParagraphBench.java
+ *    java -cp classes crviewer.NestedParagraphBench [total] [depth...]
+ *
+ * The defaults are 200000 annotations, at depths 100, 1000, 10000, 100000.
+ */
+public class NestedParagraphBench {
+
+   private static final int ROUNDS = 5;
+
+   public static void main(String[] args) throws IOException,ParseException {
+      int total = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+      int[] depths = new int[] { 100, 1000, 10000, 100000 };
+      if (args.length > 1) {
+         depths = new int[args.length - 1];
+         for (int i = 1; i < args.length; i++) depths[i-1] = Integer.parseInt(args[i]);
+      }
+      for (int depth : depths) {
+         File file = File.createTempFile("nested_" + depth + "_", ".txt");
+         file.deleteOnExit();
+         writeText(file, depth, Math.max(1, total / depth));
+         for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            Text text;
+            try {
+               text = new FileParser(file.getPath()).getText();
+            } catch (StackOverflowError e) {
+               System.out.println("depth " + depth + ": StackOverflowError");
+               break;
+            }
+            long time = (System.nanoTime() - start) / 1000000;
+            System.out.println("depth " + depth + ", round " + round + ": "
+               + text.getAnnotations().size() + " annotations, " + time + " ms");
+         }
+         file.delete();
+      }
+   }
+
+   /* Each paragraph is: {m0:... w0 {m1:... w1 ... end} end}. */
+   private static void writeText(File file, int depth, int paragraphCount) throws IOException {
+      try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+         writer.println("#textid:nested" + depth);
+         for (int p = 0; p < paragraphCount; p++) {
+            writer.println();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < depth; i++) {
+               line.append("{m").append(i % 50).append(":categorie=nom word").append(i).append(' ');
+            }
+            for (int i = 0; i < depth; i++) line.append("end}");
+            line.append('.');
+            writer.println(line);
+         }
+      }
+   }
+
+}
@@ -23,32 +23,40 @@
 
 package crviewer;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+/* Properties are stored as pairs of ids of the property schema of the
+ * corpus: key, value, key, value...  The flags of the expansion_ property
+ * are a bitmask (see ExpansionFlags), shown as properties as well.
+ */
 public class Annotation implements Comparable<Annotation> {
    public static int contextWidth = 5;
+   private static final int[] NO_PROPERTIES = new int[0];
    private String refname;
-   private ArrayList<Token> tokens;
+   private Paragraph par;
    private ArrayList<Token> wordTokens;
-   private HashMap<String, String> properties;
+   private int[] properties;
    private int start;
    private int end;
    private int index;
    private int headIndex;
+   private int expansionFlags;
    private String fullId;
 
-   public Annotation(String refname, int index, ArrayList<Token> tokens) {
+   public Annotation(String refname, int index, Paragraph par) {
       this.refname = refname;
-      this.tokens = tokens;
+      this.par = par;
       this.start = 0;
       this.end = 0;
       this.index = index;
       this.headIndex = -1;
       this.fullId = "";
-      this.properties = new HashMap<>();
+      this.properties = NO_PROPERTIES;
    }
 
    public int getStart() {
@@ -83,33 +91,27 @@ public class Annotation implements Comparable<Annotation> {
          } catch (NumberFormatException e) {
             // nothing
          }
-      } else if (key.equals("expansion_")) {
-         properties.put("expansion_", val.equals("") ? "no" : "yes");
-         properties.put("expansion_-adj", val.indexOf("a")==-1 ? "no" : "yes");
-         properties.put("expansion_-verb", val.indexOf("v")==-1 ? "no" : "yes");
-         properties.put("expansion_-apposition", val.indexOf("p")==-1 ? "no" : "yes");
-         properties.put("expansion_-relative", val.indexOf("r")==-1 ? "no" : "yes");
-         properties.put("expansion_-noun", val.indexOf("n")==-1 ? "no" : "yes");
-         properties.put("expansion_-sub", val.indexOf("s")==-1 ? "no" : "yes");
-         for (int i = 0; i < val.length(); i++) {
-            char c = val.charAt(i);
-            if (c!='a' && c!='v' && c!='p' && c!='r' && c!='n' && c!='s') {
-               System.out.println("** unknown expansion: "+c);
-               System.exit(1);
-            }
-         }
+      } else if (key.equals(ExpansionFlags.PROPERTY)) {
+         // unknown letters are reported by the parser
+         this.putProperty(ExpansionFlags.PROPERTY, val.equals("") ? "no" : "yes");
+         this.expansionFlags = ExpansionFlags.parse(val);
       } else {
-         properties.put(key, val);
+         this.putProperty(key, val);
       }
    }
+
+   private void putProperty(String key, String val) {
+      PropertySchema schema = this.getPropertySchema();
+      this.setProperty(schema.addKey(key), schema.addValue(val));
+   }
    
    public ArrayList<Token> getWordTokens() {
       if (this.wordTokens == null) {
          
          this.wordTokens = new ArrayList<>();
          for (int i = this.start; i <= this.end; i++) {
-            if (this.tokens.get(i) instanceof WordToken) {
-               this.wordTokens.add(this.tokens.get(i));
+            if (this.par.isWordToken(i)) {
+               this.wordTokens.add(this.par.getToken(i));
             }
          }
          /*System.out.println(this.getText());
@@ -132,61 +134,199 @@ public class Annotation implements Comparable<Annotation> {
       }
    }
 
+   public int getHeadIndex() {
+      return this.headIndex;
+   }
+
+   public void setHeadIndex(int headIndex) {
+      this.headIndex = headIndex;
+   }
+
+   public PropertySchema getPropertySchema() {
+      return this.par.getPropertySchema();
+   }
+
+   public int getExpansionFlags() {
+      return this.expansionFlags;
+   }
+
+   public void setExpansionFlags(int expansionFlags) {
+      this.expansionFlags = expansionFlags;
+   }
+
+   public boolean hasExpansion() {
+      return this.getValueIdOfKey(this.getPropertySchema().getKeyId(ExpansionFlags.PROPERTY)) != -1;
+   }
+
+   /* Returns true if the annotation has all the flags of the mask. */
+   public boolean hasExpansionFlags(int mask) {
+      return (this.expansionFlags & mask) == mask && this.hasExpansion();
+   }
+
+   /* Sets a property from the ids of its key and value in the property
+    * schema, without the special handling of addProperty() (used when
+    * reading a snapshot).
+    */
+   public void setProperty(int keyId, int valueId) {
+      int[] properties = this.properties;
+      for (int i = 0; i < properties.length; i += 2) {
+         if (properties[i] == keyId) {
+            properties[i + 1] = valueId;
+            return;
+         }
+      }
+      properties = Arrays.copyOf(properties, properties.length + 2);
+      properties[properties.length - 2] = keyId;
+      properties[properties.length - 1] = valueId;
+      this.properties = properties;
+   }
+
+   /* The number of properties stored with ids, that is without the flags
+    * of expansion_.
+    */
+   public int getPropertyCount() {
+      return this.properties.length / 2;
+   }
+
+   public int getPropertyKeyId(int i) {
+      return this.properties[2 * i];
+   }
+
+   public int getPropertyValueId(int i) {
+      return this.properties[2 * i + 1];
+   }
+
+   /* Returns the id of the value of the key, or -1 if the annotation doesn't
+    * have the property.
+    */
+   public int getValueIdOfKey(int keyId) {
+      int[] properties = this.properties;
+      for (int i = 0; i < properties.length; i += 2) {
+         if (properties[i] == keyId) return properties[i + 1];
+      }
+      return -1;
+   }
+
    public String getProperty(String key) {
-      return properties.get(key);
+      PropertySchema schema = this.getPropertySchema();
+      int valueId = this.getValueIdOfKey(schema.getKeyId(key));
+      if (valueId != -1) return schema.getValue(valueId);
+      int flag = ExpansionFlags.getFlagOfKey(key);
+      if (flag != -1 && this.hasExpansion()) {
+         return (this.expansionFlags & (1 << flag)) == 0 ? "no" : "yes";
+      }
+      return null;
    }
 
    public boolean hasProperty(String key) {
-      return properties.containsKey(key);
+      return this.getProperty(key) != null;
+   }
+
+   private int getExpansionFlagCount() {
+      return this.hasExpansion() ? ExpansionFlags.getFlagCount() : 0;
    }
 
+   /* A read-only view of the property keys. */
    public Set<String> getPropertyList() {
-      return this.properties.keySet();
+      return new AbstractSet<String>() {
+         @Override
+         public Iterator<String> iterator() {
+            return new Iterator<String>() {
+               private int i = 0;
+               private int size = size();
+               @Override
+               public boolean hasNext() {
+                  return this.i < this.size;
+               }
+               @Override
+               public String next() {
+                  if (!this.hasNext()) throw new NoSuchElementException();
+                  int i = this.i++;
+                  if (i < getPropertyCount()) {
+                     return getPropertySchema().getKey(getPropertyKeyId(i));
+                  }
+                  return ExpansionFlags.getKey(i - getPropertyCount());
+               }
+            };
+         }
+         @Override
+         public int size() {
+            return getPropertyCount() + getExpansionFlagCount();
+         }
+         @Override
+         public boolean contains(Object o) {
+            return o instanceof String && hasProperty((String)o);
+         }
+      };
    }
 
    public String toString() {
       String res = "Annotation: \"" + this.getText() + "\":\n";
-      Set<String> keys = this.properties.keySet();
-      for (String k : keys) {
-         res += " - " + k + ": " + this.properties.get(k) + "\n";
+      for (String k : this.getPropertyList()) {
+         res += " - " + k + ": " + this.getProperty(k) + "\n";
       }
       return res;
    }
 
-   public String getLeftContext() {
-      String left = "";
-      for (int c = 0, i = start - 1; 0 <= i; i--) {
-         if ((tokens.get(i)) instanceof WordToken)
+   /* The left context goes back to the contextWidth-th word before the
+    * annotation, and the right context up to the contextWidth-th word after
+    * it, with the spaces and punctuations in between.
+    */
+   private int getLeftContextStart() {
+      int i = this.start - 1;
+      for (int c = 0; 0 <= i; i--) {
+         if (par.isWordToken(i))
             c++;
          if (c > Annotation.contextWidth)
             break;
-         left = tokens.get(i) + left;
       }
-      return left;
+      return i + 1;
    }
 
-   public String getRightContext() {
-      String right = "";
-      for (int c = 0, i = end + 1; i < tokens.size(); i++) {
-         if ((tokens.get(i)) instanceof WordToken)
+   private int getRightContextEnd() {
+      int i = this.end + 1;
+      for (int c = 0; i < par.getTokenCount(); i++) {
+         if (par.isWordToken(i))
             c++;
          if (c > Annotation.contextWidth)
             break;
-         right += tokens.get(i);
       }
-      return right;
+      return i;
+   }
+
+   public String getLeftContext() {
+      return par.getText(this.getLeftContextStart(), this.start);
+   }
+
+   public String getRightContext() {
+      return par.getText(this.end + 1, this.getRightContextEnd());
    }
 
    public String getText() {
-      String text = "";
-      for (int i = start; i <= end; i++) {
-         text += tokens.get(i);
-      }
-      return text;
+      return par.getText(this.start, this.end + 1);
    }
-   
+
+   public CharSequence getTextView() {
+      return par.getTextView(this.start, this.end + 1);
+   }
+
+   public StringBuilder appendLeftContext(StringBuilder sb) {
+      return par.appendText(sb, this.getLeftContextStart(), this.start);
+   }
+
+   public StringBuilder appendText(StringBuilder sb) {
+      return par.appendText(sb, this.start, this.end + 1);
+   }
+
+   public StringBuilder appendRightContext(StringBuilder sb) {
+      return par.appendText(sb, this.end + 1, this.getRightContextEnd());
+   }
+
    public String getTextWithRightContext() {
-      return "*"+this.getText()+"*"+this.getRightContext();
+      StringBuilder sb = new StringBuilder();
+      sb.append('*');
+      this.appendText(sb).append('*');
+      return this.appendRightContext(sb).toString();
    }
 
    public String getRefname() {
@@ -197,14 +337,12 @@ public class Annotation implements Comparable<Annotation> {
       return this.index;
    }
 
+   public void setIndex(int index) {
+      this.index = index;
+   }
+
    public int getWordTokenCount() {
-      int res = 0;
-      for (int i = this.start; i <= this.end; i++) {
-         if (this.tokens.get(i) instanceof WordToken) {
-            res++;
-         }
-      }
-      return res;
+      return this.par.getWordTokenCount(this.start, this.end + 1);
    }
 
    @Override
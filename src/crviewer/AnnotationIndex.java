@@ -0,0 +1,277 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/* Inverted indexes of the annotations of a corpus: for each refname and each
+ * (property, value) pair, the set of annotations that have it.  Annotations
+ * are numbered text by text, part by part and paragraph by paragraph, so that
+ * each text, part and paragraph covers a range of numbers.  A filter matches
+ * its regexes against the distinct refnames and values only, and combines
+ * their annotation sets as bitmaps.  The flags of expansion_ (the
+ * expansion_-adj... properties) are not indexed as values: a filter tests
+ * them on the bitmask of each annotation, and only their counts are kept
+ * here.
+ */
+public class AnnotationIndex {
+
+   private Annotation[] annotations;
+   private HashMap<String,Postings> refnames;
+   private HashMap<String,HashMap<String,Postings>> properties;
+   private EnumMap<SplitByType,Chunks> chunks;
+   private int expansionCount;
+   private int[] expansionFlagFreqs;
+
+   public AnnotationIndex(Corpus corpus) {
+      ArrayList<Annotation> annots = new ArrayList<>();
+      this.chunks = new EnumMap<>(SplitByType.class);
+      Chunks texts = new Chunks(corpus.getTexts());
+      Chunks parts = new Chunks(corpus.getParts());
+      Chunks pars = new Chunks(corpus.getParagraphs());
+      int t = 0, p = 0, q = 0;
+      for (Text text : corpus.getTexts()) {
+         texts.starts[t++] = annots.size();
+         for (Part part : text.getParts()) {
+            parts.starts[p++] = annots.size();
+            for (Paragraph par : part.getParagraphs()) {
+               pars.starts[q++] = annots.size();
+               annots.addAll(par.getAnnotations());
+            }
+         }
+      }
+      texts.starts[t] = parts.starts[p] = pars.starts[q] = annots.size();
+      this.chunks.put(SplitByType.text, texts);
+      this.chunks.put(SplitByType.part, parts);
+      this.chunks.put(SplitByType.paragraph, pars);
+      this.annotations = annots.toArray(new Annotation[annots.size()]);
+      this.refnames = new HashMap<>();
+      this.properties = new HashMap<>();
+      this.expansionCount = 0;
+      this.expansionFlagFreqs = new int[ExpansionFlags.MAX_FLAGS];
+      for (int i = 0; i < this.annotations.length; i++) {
+         Annotation annot = this.annotations[i];
+         getPostings(this.refnames, annot.getRefname()).add(i);
+         PropertySchema schema = annot.getPropertySchema();
+         for (int j = 0; j < annot.getPropertyCount(); j++) {
+            String key = schema.getKey(annot.getPropertyKeyId(j));
+            HashMap<String,Postings> values = this.properties.get(key);
+            if (values == null) {
+               values = new HashMap<>();
+               this.properties.put(key, values);
+            }
+            getPostings(values, schema.getValue(annot.getPropertyValueId(j))).add(i);
+         }
+         if (annot.hasExpansion()) {
+            this.expansionCount++;
+            int flags = annot.getExpansionFlags();
+            for (int flag = 0; flags != 0; flag++, flags >>>= 1) {
+               if ((flags & 1) != 0) this.expansionFlagFreqs[flag]++;
+            }
+         }
+      }
+      for (Postings postings : this.refnames.values()) {
+         postings.seal(this.annotations.length);
+      }
+      for (HashMap<String,Postings> values : this.properties.values()) {
+         for (Postings postings : values.values()) {
+            postings.seal(this.annotations.length);
+         }
+      }
+   }
+
+   private static Postings getPostings(HashMap<String,Postings> map, String key) {
+      Postings postings = map.get(key);
+      if (postings == null) {
+         postings = new Postings();
+         map.put(key, postings);
+      }
+      return postings;
+   }
+
+   public int getAnnotationCount() {
+      return this.annotations.length;
+   }
+
+   public Annotation getAnnotation(int i) {
+      return this.annotations[i];
+   }
+
+   /* The distinct refnames (read-only). */
+   public Set<String> getRefnames() {
+      return Collections.unmodifiableSet(this.refnames.keySet());
+   }
+
+   /* The number of annotations of this refname. */
+   public int getRefnameFreq(String refname) {
+      Postings postings = this.refnames.get(refname);
+      return postings == null ? 0 : postings.size();
+   }
+
+   /* Adds the annotations of this refname to the bitmap. */
+   public void addRefname(String refname, BitSet bits) {
+      Postings postings = this.refnames.get(refname);
+      if (postings != null) postings.addTo(bits);
+   }
+
+   /* The distinct values of the property (read-only, empty if no annotation
+    * has the property).
+    */
+   public Set<String> getPropertyValues(String key) {
+      HashMap<String,Postings> values = this.properties.get(key);
+      if (values == null) return Collections.emptySet();
+      return Collections.unmodifiableSet(values.keySet());
+   }
+
+   /* The number of annotations with this value of the property. */
+   public int getPropertyFreq(String key, String value) {
+      HashMap<String,Postings> values = this.properties.get(key);
+      if (values == null) return 0;
+      Postings postings = values.get(value);
+      return postings == null ? 0 : postings.size();
+   }
+
+   /* Adds the annotations with this value of the property to the bitmap. */
+   public void addPropertyValue(String key, String value, BitSet bits) {
+      HashMap<String,Postings> values = this.properties.get(key);
+      if (values == null) return;
+      Postings postings = values.get(value);
+      if (postings != null) postings.addTo(bits);
+   }
+
+   /* The number of annotations with the expansion_ property. */
+   public int getExpansionCount() {
+      return this.expansionCount;
+   }
+
+   /* The number of annotations that have the flag of expansion_. */
+   public int getExpansionFlagFreq(int flag) {
+      return this.expansionFlagFreqs[flag];
+   }
+
+   public int getChunkCount(SplitByType splitBy) {
+      return this.chunks.get(splitBy).list.size();
+   }
+
+   public TextChunk getChunk(SplitByType splitBy, int i) {
+      return this.chunks.get(splitBy).list.get(i);
+   }
+
+   /* The number of the first annotation of the chunk. */
+   public int getChunkStart(SplitByType splitBy, int i) {
+      return this.chunks.get(splitBy).starts[i];
+   }
+
+   /* The number after the last annotation of the chunk. */
+   public int getChunkEnd(SplitByType splitBy, int i) {
+      return this.chunks.get(splitBy).starts[i + 1];
+   }
+
+   /* Returns true if no two chunks have the same id (the chains of two
+    * chunks with the same id are merged).
+    */
+   public boolean hasUniqueChunkIds(SplitByType splitBy) {
+      Chunks chunks = this.chunks.get(splitBy);
+      if (chunks.uniqueIds == null) {
+         HashSet<String> ids = new HashSet<>();
+         boolean unique = true;
+         for (TextChunk chunk : chunks.list) {
+            if (!ids.add(chunk.getId())) {
+               unique = false;
+               break;
+            }
+         }
+         chunks.uniqueIds = unique;
+      }
+      return chunks.uniqueIds;
+   }
+
+}
+
+/* The texts, parts or paragraphs of a corpus, with the number of the first
+ * annotation of each.
+ */
+class Chunks {
+   public List<? extends TextChunk> list;
+   public int[] starts;
+   public Boolean uniqueIds;
+
+   public Chunks(List<? extends TextChunk> list) {
+      this.list = list;
+      this.starts = new int[list.size() + 1];
+   }
+}
+
+/* The numbers of the annotations of a refname or a property value, kept as a
+ * sorted array, or as a bitmap when the bitmap is smaller (that is when more
+ * than one annotation in 32 is in the set).
+ */
+class Postings {
+   private int[] numbers = new int[4];
+   private int count = 0;
+   private BitSet bits;
+
+   public void add(int n) {
+      // a key may be listed twice for the same annotation
+      if (this.count > 0 && this.numbers[this.count - 1] == n) return;
+      if (this.count == this.numbers.length) {
+         this.numbers = Arrays.copyOf(this.numbers, this.count * 2);
+      }
+      this.numbers[this.count++] = n;
+   }
+
+   public void seal(int total) {
+      if ((long)this.count * 32 > total) {
+         this.bits = new BitSet(total);
+         for (int i = 0; i < this.count; i++) {
+            this.bits.set(this.numbers[i]);
+         }
+         this.numbers = null;
+      } else {
+         this.numbers = Arrays.copyOf(this.numbers, this.count);
+      }
+   }
+
+   public int size() {
+      return this.count;
+   }
+
+   public void addTo(BitSet result) {
+      if (this.bits != null) {
+         result.or(this.bits);
+      } else {
+         for (int i = 0; i < this.count; i++) {
+            result.set(this.numbers[i]);
+         }
+      }
+   }
+}
@@ -0,0 +1,163 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+package crviewer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/* Reads the lines of a file like BufferedReader.readLine(), but the file is
+ * read in blocks of bytes and split into lines at the byte level: only the
+ * lines that contain something else than white spaces are decoded (malformed
+ * input is replaced, as with an InputStreamReader).  The blocks are read into
+ * a reusable heap buffer rather than memory-mapped, so that nothing holds the
+ * file once the reader is closed (on Windows, a mapped file can't be saved
+ * by an editor until the mapping is garbage collected).
+ *
+ * Splitting at the byte level requires that '\n' and '\r' are encoded as
+ * single bytes that can't appear inside another character, which is the case
+ * for UTF-8, the ISO-8859 family, Windows code pages, etc.  For the other
+ * charsets (UTF-16, UTF-32...), the file is read through a BufferedReader.
+ */
+public class ByteLineReader implements Closeable {
+
+   private static final int BUFFER_SIZE = 1 << 20;
+   private FileInputStream in;
+   private FileChannel channel;
+   private boolean endOfFile;
+   // the bytes read and not returned yet are between position and limit
+   private ByteBuffer buf;
+   private Charset charset;
+   private BufferedReader reader;
+
+   public ByteLineReader(String filename, Charset charset) throws IOException {
+      if (isByteSplittable(charset)) {
+         this.in = new FileInputStream(filename);
+         this.channel = this.in.getChannel();
+         this.endOfFile = false;
+         this.buf = ByteBuffer.allocate(BUFFER_SIZE);
+         this.buf.limit(0);
+         this.charset = charset;
+      } else {
+         this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), charset));
+      }
+   }
+
+   /* Reads the lines of the content of a file already in memory. */
+   public ByteLineReader(byte[] content, Charset charset) {
+      if (isByteSplittable(charset)) {
+         this.endOfFile = true;
+         this.buf = ByteBuffer.wrap(content);
+         this.charset = charset;
+      } else {
+         this.reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), charset));
+      }
+   }
+
+   private static boolean isByteSplittable(Charset charset) {
+      if (!charset.canEncode()) return false;
+      byte[] bytes = "\n\r".getBytes(charset);
+      return bytes.length == 2 && bytes[0] == '\n' && bytes[1] == '\r';
+   }
+
+   /* Moves the bytes not returned yet to the start of the buffer (which is
+    * enlarged if they fill it), and reads the file after them.
+    */
+   private void fill() throws IOException {
+      this.buf.compact();
+      if (!this.buf.hasRemaining()) {
+         ByteBuffer larger = ByteBuffer.allocate(this.buf.capacity() * 2);
+         this.buf.flip();
+         larger.put(this.buf);
+         this.buf = larger;
+      }
+      while (this.buf.hasRemaining()) {
+         if (this.channel.read(this.buf) == -1) {
+            this.endOfFile = true;
+            break;
+         }
+      }
+      this.buf.flip();
+   }
+
+   /* Returns the next line, without the line terminator, or null at the end
+    * of the file.  Lines made only of white spaces are returned as "".
+    */
+   public String readLine() throws IOException {
+      if (this.reader != null) {
+         return this.reader.readLine();
+      }
+      if (!this.buf.hasRemaining()) {
+         if (this.endOfFile) return null;
+         this.fill();
+         if (!this.buf.hasRemaining()) return null;
+      }
+      ByteBuffer buf = this.buf;
+      byte[] bytes = buf.array();
+      int start = buf.position();
+      int limit = buf.limit();
+      int end = start;
+      boolean blank = true;
+      while (end < limit) {
+         byte b = bytes[end];
+         if (b == '\n' || b == '\r') break;
+         if (b < 0 || b > ' ') blank = false;
+         end++;
+      }
+      boolean cut = end == limit || (end + 1 == limit && bytes[end] == '\r');
+      if (cut && !this.endOfFile) {
+         // the line (or its terminator) goes beyond the bytes read: read
+         // more from its start
+         this.fill();
+         return this.readLine();
+      }
+      int next = end;
+      if (next < limit) {
+         if (bytes[next] == '\r' && next + 1 < limit && bytes[next + 1] == '\n') next++;
+         next++;
+      }
+      buf.position(next);
+      if (blank) return "";
+      return new String(bytes, start, end - start, this.charset);
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (this.reader != null) {
+         this.reader.close();
+      } else {
+         this.buf = null;
+         if (this.channel != null) {
+            this.channel.close();
+            this.in.close();
+         }
+      }
+   }
+
+}
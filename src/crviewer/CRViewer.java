@@ -46,11 +46,14 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -83,8 +86,13 @@ public class CRViewer extends Application {
    private static final int CONTEXT_WIDTH = 5;
    private static final int PNG_WIDTH = 1280;
    private static final int PNG_HEIGHT = 800;
+   private static final String SNAPSHOT_DIRECTORY = ".crviewer/snapshots";
    private Stage primaryStage;
    private Corpus corpus;
+   private CorpusLoader loader;
+   private ArrayList<String> filenames;
+   private CorpusWatcher watcher;
+   private ChainCollectionCache collectionCache = new ChainCollectionCache();
    private PartType[] partTypes;
    private SplitPane rootpane;
    private TextField tfMinSize;
@@ -101,6 +109,7 @@ public class CRViewer extends Application {
    private TextField tfContextWidth;
    private ComboBox<String> cboStabCoeffProperty;
    private TextField tfStabCoeffValue;
+   private CheckBox chkWatch;
    
    
    /* Returns a TVS by loop around a TableView. Adapted from
@@ -193,7 +202,6 @@ public class CRViewer extends Application {
 
 
    private boolean createCorpus(Stage stage) throws IOException,ParseException {
-      this.corpus = new Corpus();
       ArrayList<String> filenames = new ArrayList<>();
       if (this.getParameters().getRaw().size()==0) {
          FileChooser fileChooser = new FileChooser();
@@ -211,37 +219,101 @@ public class CRViewer extends Application {
             filenames.add(arg);
          }
       }
-      for (String filename : filenames) {
-         FileParser fp = new FileParser(filename);
-         corpus.addText(fp.getText());
-      }
+      this.filenames = filenames;
+      this.loader = new CorpusLoader();
+      this.loader.setSnapshotDirectory(new File(System.getProperty("user.home"), CRViewer.SNAPSHOT_DIRECTORY));
+      this.corpus = this.loader.load(filenames);
+      this.createPartTypes();
+      return true;
+   }
+
+   private void createPartTypes() {
       this.partTypes = new PartType[5];
       this.partTypes[0] = new PartType("introduction", this.corpus, "context");
       this.partTypes[1] = new PartType("methodology", this.corpus, "material");
       this.partTypes[2] = new PartType("results", this.corpus);
       this.partTypes[3] = new PartType("discussion", this.corpus);
       this.partTypes[4] = new PartType("conclusion", this.corpus);
-      return true;
+   }
+
+   /* Fills the lists that depend on the content of the corpus, keeping the
+    * current selections when they are still available.
+    */
+   private void fillCorpusLists() {
+      String refName = cboRefName.getValue();
+      cboRefName.getItems().setAll("");
+      cboRefName.getItems().addAll(this.corpus.getAllRefNames());
+      cboRefName.setValue(refName != null && cboRefName.getItems().contains(refName) ? refName : "");
+      for (PropertyControlPair pair : ctrlProperties) {
+         fillPropertyList(pair.cboProp);
+      }
+      fillPropertyList(cboXProperty);
+      fillPropertyList(cboStabCoeffProperty);
+   }
+
+   private void fillPropertyList(ComboBox<String> cbo) {
+      String value = cbo.getValue();
+      cbo.getItems().setAll(this.corpus.getPropertyList());
+      if (value != null && cbo.getItems().contains(value)) {
+         cbo.setValue(value);
+      } else {
+         cbo.setValue(cbo.getItems().size() > 0 ? cbo.getItems().get(0) : null);
+      }
+   }
+
+   /* Reloads the texts whose file is modified.  Files are parsed on the
+    * thread of the watcher, and swapped into the corpus on the application
+    * thread; the display is updated at the next click on "Update!".
+    */
+   private void setWatching(boolean watch) {
+      if (watch && this.watcher == null) {
+         try {
+            this.watcher = new CorpusWatcher(this.loader, this.corpus.getTokenPool(), this.filenames,
+                  new CorpusWatcher.Listener() {
+               @Override
+               public void textReloaded(String filename, Text text) {
+                  Platform.runLater(new Runnable() {
+                     @Override
+                     public void run() {
+                        swapText(filename, text);
+                     }
+                  });
+               }
+            });
+            this.watcher.start();
+         } catch (IOException e) {
+            e.printStackTrace();
+            chkWatch.setSelected(false);
+         }
+      } else if (!watch && this.watcher != null) {
+         this.watcher.stop();
+         this.watcher = null;
+      }
+   }
+
+   private void swapText(String filename, Text text) {
+      Text oldText = this.corpus.getTextByFilename(filename);
+      if (oldText == null) return;
+      try {
+         this.corpus.replaceText(oldText, text);
+      } catch (RuntimeException e) {
+         System.out.println("Can't reload file: "+filename+" ("+e.getMessage()+")");
+         return;
+      }
+      this.createPartTypes();
+      this.fillCorpusLists();
+      System.out.println("Reloaded file: "+filename);
    }
 
    private ScrollPane getControlPane() {
       tfMinSize = new TextField(String.valueOf(CRViewer.CHAIN_MIN_SIZE));
       tfRefName = new TextField("");
       cboRefName = new ComboBox<>();
-      cboRefName.getItems().add("");
-      cboRefName.getItems().addAll(this.corpus.getAllRefNames());
-      cboRefName.setValue("");
       tfTextId = new TextField("");
       ctrlProperties = new PropertyControlPair[CRViewer.PROPERTY_CONTROL_NUMBER];
       for (int i = 0; i < ctrlProperties.length; i++) {
          ctrlProperties[i] = new PropertyControlPair();
       }
-      for (PropertyControlPair pair : ctrlProperties) {
-         for (String s : this.corpus.getPropertyList()) {
-            pair.cboProp.getItems().add(s);
-            if (pair.cboProp.getValue() == null) pair.cboProp.setValue(s);
-         }
-      }
       cboSplitBy = new ComboBox<>();
       for (SplitByType t : SplitByType.values()) {
          cboSplitBy.getItems().add(t.toString());
@@ -259,18 +331,22 @@ public class CRViewer extends Application {
       }
       tfDisplayFilter = new TextField("");
       cboXProperty = new ComboBox<>();
-      cboXProperty.getItems().addAll(this.corpus.getPropertyList());
-      if (cboXProperty.getItems().size() > 0) cboXProperty.setValue(cboXProperty.getItems().get(0));
       cboYStat = new ComboBox<>();
       for (StatsBar t : StatsBar.values()) {
          cboYStat.getItems().add(t.toString());
          if (cboYStat.getValue() == null) cboYStat.setValue(t.toString());
       }
       cboStabCoeffProperty = new ComboBox<>();
-      cboStabCoeffProperty.getItems().addAll(this.corpus.getPropertyList());
-      if (cboStabCoeffProperty.getItems().size() > 0) cboStabCoeffProperty.setValue(cboStabCoeffProperty.getItems().get(0));
       tfStabCoeffValue = new TextField("");
       tfContextWidth = new TextField(String.valueOf(CRViewer.CONTEXT_WIDTH));
+      this.fillCorpusLists();
+      chkWatch = new CheckBox("Reload edited files");
+      chkWatch.setOnAction(new EventHandler<ActionEvent>() {
+         @Override
+         public void handle(ActionEvent event) {
+            setWatching(chkWatch.isSelected());
+         }
+      });
 
       Button btnUpdate = new Button("Update!");
       btnUpdate.setOnAction(new EventHandler<ActionEvent>() {
@@ -339,7 +415,7 @@ public class CRViewer extends Application {
       VBox vbox = new VBox(10);
       vbox.setPadding(new Insets(10, 10, 10, 10));
       vbox.getChildren().addAll(selectionLabel, selectPane, displayLabel, displayPane,
-            btnUpdate, licenseBox);
+            btnUpdate, chkWatch, licenseBox);
       ScrollPane scrollPane = new ScrollPane();
       scrollPane.setFitToWidth(true);
       scrollPane.setContent(vbox);
@@ -390,7 +466,7 @@ public class CRViewer extends Application {
       // build the filter
       ChainFilter filter = buildChainFilter();
       SplitByType splitBy = SplitByType.valueOf(cboSplitBy.getValue());
-      ChainCollection chainColl = new ChainCollection(corpus, splitBy, filter);
+      ChainCollection chainColl = this.collectionCache.get(corpus, splitBy, filter);
       /*System.out.println("List of chains:");
       for (Chain chain : chainColl.getChains()) {
          chain.speak();
@@ -433,11 +509,10 @@ public class CRViewer extends Application {
    private Pane getFreqPerChainPane(ChainCollection chainColl) {
       TableView<Chain> table = new TableView<Chain>();
       table.getItems().addAll(chainColl.getChains());
-      table.getColumns().add(new ShortCol<Chain,String>("Id", "FullId").col);
-      for (String propName : chainColl.getPropertyList()) {
-         for (String propValue : chainColl.getPropertyMap().get(propName)) {
-            table.getColumns().add(new ShortCol<Chain,Integer>(propName + ":\n" + propValue, "getPropertyFreq", propName, propValue).col);
-         }
+      table.getColumns().add(new ShortCol<Chain,String>("Id", Chain.class, "FullId").col);
+      FrequencyCube cube = this.collectionCache.getFrequencyCube(chainColl, DisplayUnit.chain.toString(), null);
+      for (int i = 0; i < cube.getColumnCount(); i++) {
+         table.getColumns().add(CRViewer.<Chain>getFreqCol(cube, i));
       }
       CRViewer.writeTsv(CRViewer.getTsvFromTableView(table), "output_frequencies");
       Pane pane = new StackPane(table);
@@ -466,12 +541,11 @@ public class CRViewer extends Application {
    private Pane getFreqPerChunkPane(ChainCollection chainColl, DisplayUnit displayUnit) {
       TableView<TextChunk> table = new TableView<TextChunk>();
       this.populateTableWithChunk(table, displayUnit);
-      table.getColumns().add(new ShortCol<TextChunk,String>("Id", "Id").col);
-      for (String propName : chainColl.getPropertyList()) {
-         for (String propValue : chainColl.getPropertyMap().get(propName)) {
-            //TODO: wrap the header text if it is too large
-            table.getColumns().add(new ShortCol<TextChunk,Integer>(propName + ":\n" + propValue, "getPropertyFreq", propName, propValue, chainColl).col);
-         }
+      table.getColumns().add(new ShortCol<TextChunk,String>("Id", TextChunk.class, "Id").col);
+      FrequencyCube cube = this.collectionCache.getFrequencyCube(chainColl, displayUnit.toString(), table.getItems());
+      for (int i = 0; i < cube.getColumnCount(); i++) {
+         //TODO: wrap the header text if it is too large
+         table.getColumns().add(CRViewer.<TextChunk>getFreqCol(cube, i));
       }
       CRViewer.writeTsv(CRViewer.getTsvFromTableView(table), "output_frequencies");
       Pane pane = new StackPane(table);
@@ -481,6 +555,19 @@ public class CRViewer extends Application {
       return pane;
    }
 
+   /* A column of frequencies of a property value, read from the cube. */
+   private static <T> TableColumn<T,Integer> getFreqCol(final FrequencyCube cube, final int i) {
+      TableColumn<T,Integer> col = new TableColumn<T,Integer>(cube.getPropertyName(i) + ":\n" + cube.getPropertyValue(i));
+      col.setSortable(true);
+      col.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<T,Integer>, ObservableValue<Integer>>() {
+         @Override
+         public ObservableValue<Integer> call(CellDataFeatures<T, Integer> p) {
+            return new ReadOnlyObjectWrapper<Integer>(cube.getFreq(p.getValue(), i));
+         }
+      });
+      return col;
+   }
+
    private Pane getFreqPiePane(ChainCollection chainColl) {
       Pane pane;
       String propName = this.cboXProperty.getValue();
@@ -488,11 +575,13 @@ public class CRViewer extends Application {
       if (chainColl.getPropertyMap().containsKey(propName)) {
          PieChart chart = new PieChart();
          chart.setLegendSide(Side.BOTTOM);
-         double total = this.corpus.getPropertyFreq(propName, chainColl);
+         FrequencyCube cube = this.collectionCache.getFrequencyCube(chainColl, DisplayUnit.corpus.toString(),
+               Arrays.asList(this.corpus));
+         double total = cube.getFreq(this.corpus, propName);
          ArrayList<String> valueList = chainColl.getPropertyMap().get(propName); 
          Collections.sort(valueList);
          for (String propValue : valueList) {
-            double value = this.corpus.getPropertyFreq(propName, propValue, chainColl);
+            double value = cube.getFreq(this.corpus, propName, propValue);
             String label = propValue + " (" + String.format("%.1f%%", value/total*100) + ")";
             chart.getData().add(new Data(label, value));
             tsv.append(propValue + "\t" + String.format("%.3f", value/total*100) + "\n");
@@ -514,48 +603,51 @@ public class CRViewer extends Application {
       return pane;
    }
 
+   /* A column of statistics, read from the engine. */
+   private static TableColumn<TextChunk,Number> getStatCol(String heading, final StatsEngine engine,
+         final StatsEngine.Stat stat) {
+      TableColumn<TextChunk,Number> col = new TableColumn<TextChunk,Number>(heading);
+      col.setSortable(true);
+      col.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<TextChunk,Number>, ObservableValue<Number>>() {
+         @Override
+         public ObservableValue<Number> call(CellDataFeatures<TextChunk, Number> p) {
+            return new ReadOnlyObjectWrapper<Number>(engine.getValue(stat, engine.getRow(p.getValue())));
+         }
+      });
+      return col;
+   }
+
    @SuppressWarnings("unchecked")
    private Pane getChunkStatsPane(ChainCollection chainColl, DisplayUnit displayUnit) {
       TableView<TextChunk> table = new TableView<TextChunk>();
       this.populateTableWithChunk(table, displayUnit);
+      final StatsEngine engine = this.collectionCache.getStatsEngine(chainColl, displayUnit.toString(), table.getItems());
+      TableColumn<TextChunk,String> colId = new TableColumn<TextChunk,String>("Id");
+      colId.setSortable(true);
+      colId.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<TextChunk,String>, ObservableValue<String>>() {
+         @Override
+         public ObservableValue<String> call(CellDataFeatures<TextChunk, String> p) {
+            return new ReadOnlyObjectWrapper<String>(engine.getId(engine.getRow(p.getValue())));
+         }
+      });
+      table.getColumns().add(colId);
       table.getColumns().addAll(
-            new ShortCol<TextChunk,String>("Id", "Id").col,
-            new ShortCol<TextChunk,Double>("AvgL2LDist", "AverageLinkToLinkDistance", chainColl).col,
-            new ShortCol<TextChunk,Double>("AvgLinkLength", "AverageLinkLength", chainColl).col,
-            new ShortCol<TextChunk,Double>("AvgChainSize", "AverageChainSize", chainColl).col,
-            new ShortCol<TextChunk,Integer>("ChainCount", "ChainCount", chainColl).col,
-            new ShortCol<TextChunk,Integer>("LinkCount", "LinkCount", chainColl).col,
-            new ShortCol<TextChunk,Double>("Stab Coeff", "StabilityCoeff", chainColl).col,
-            new ShortCol<TextChunk,Double>("ChainDensity", "ChainDensity", chainColl).col,
-            new ShortCol<TextChunk,Double>("LinkDensity", "LinkDensity", chainColl).col,
-            new ShortCol<TextChunk,Double>("AnnotationDensity", "AnnotationDensity").col,
-            new ShortCol<TextChunk,Double>("#words", "WordTokenCount").col);
+            getStatCol("AvgL2LDist", engine, StatsEngine.Stat.AverageLinkToLinkDistance),
+            getStatCol("AvgLinkLength", engine, StatsEngine.Stat.AverageLinkLength),
+            getStatCol("AvgChainSize", engine, StatsEngine.Stat.AverageChainSize),
+            getStatCol("ChainCount", engine, StatsEngine.Stat.ChainCount),
+            getStatCol("LinkCount", engine, StatsEngine.Stat.LinkCount),
+            getStatCol("Stab Coeff", engine, StatsEngine.Stat.StabilityCoeff),
+            getStatCol("ChainDensity", engine, StatsEngine.Stat.ChainDensity),
+            getStatCol("LinkDensity", engine, StatsEngine.Stat.LinkDensity),
+            getStatCol("AnnotationDensity", engine, StatsEngine.Stat.AnnotationDensity),
+            getStatCol("#words", engine, StatsEngine.Stat.WordTokenCount));
       if (displayUnit.equals(DisplayUnit.part) || displayUnit.equals(DisplayUnit.parttype)
             || displayUnit.equals(DisplayUnit.text) || displayUnit.equals(DisplayUnit.corpus)) {
-         //table.getColumns().add(new ShortCol<TextChunk,Double>("#pars", "ParagraphsCount").col);
-         TableColumn<TextChunk,Integer> col = new TableColumn<TextChunk,Integer>("#pars");
-         col.setSortable(true);
-         col.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<TextChunk,Integer>, ObservableValue<Integer>>() {
-            @Override
-            public ObservableValue<Integer> call(CellDataFeatures<TextChunk, Integer> p) {
-               // p.getValue() returns the Person/whatever instance for a particular TableView row
-               return new ReadOnlyObjectWrapper<Integer>(((HasParagraphs)p.getValue()).getParagraphCount());
-            }
-         });
-         table.getColumns().add(col);
+         table.getColumns().add(getStatCol("#pars", engine, StatsEngine.Stat.ParagraphCount));
       }
       if (displayUnit.equals(DisplayUnit.text) || displayUnit.equals(DisplayUnit.corpus)) {
-         //table.getColumns().add(new ShortCol<TextChunk,Double>("#pars", "ParagraphsCount").col);
-         TableColumn<TextChunk,Integer> col = new TableColumn<TextChunk,Integer>("#parts");
-         col.setSortable(true);
-         col.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<TextChunk,Integer>, ObservableValue<Integer>>() {
-            @Override
-            public ObservableValue<Integer> call(CellDataFeatures<TextChunk, Integer> p) {
-               // p.getValue() returns the Person/whatever instance for a particular TableView row
-               return new ReadOnlyObjectWrapper<Integer>(((HasParts)p.getValue()).getPartCount());
-            }
-         });
-         table.getColumns().add(col);
+         table.getColumns().add(getStatCol("#parts", engine, StatsEngine.Stat.PartCount));
       }
       CRViewer.writeTsv(CRViewer.getTsvFromTableView(table), "output_stats");
       Pane pane = new StackPane(table);
@@ -570,11 +662,11 @@ public class CRViewer extends Application {
       TableView<Chain> table = new TableView<Chain>();
       table.getItems().addAll(chainColl.getChains());
       table.getColumns().addAll(
-            new ShortCol<Chain,String>("Id", "FullId").col,
-            new ShortCol<Chain,Integer>("Size", "Size").col,
-            new ShortCol<Chain,Double>("L2LDist", "AverageLinkToLinkDistance").col,
-            new ShortCol<Chain,Double>("LinkLen", "AverageLinkLength").col,
-            new ShortCol<Chain,Double>("Stab Coeff", "StabilityCoeff").col);
+            new ShortCol<Chain,String>("Id", Chain.class, "FullId").col,
+            new ShortCol<Chain,Integer>("Size", Chain.class, "Size").col,
+            new ShortCol<Chain,Double>("L2LDist", Chain.class, "AverageLinkToLinkDistance").col,
+            new ShortCol<Chain,Double>("LinkLen", Chain.class, "AverageLinkLength").col,
+            new ShortCol<Chain,Double>("Stab Coeff", Chain.class, "StabilityCoeff").col);
       CRViewer.writeTsv(CRViewer.getTsvFromTableView(table), "output_stats");
       Pane pane = new StackPane(table);
       //Pane pane = new VBox(table);
@@ -583,29 +675,27 @@ public class CRViewer extends Application {
       return pane;
    }
    
-   private double getStatValue(ChainCollection chainColl, TextChunk chunk) {
+   private double getStatValue(StatsEngine engine, int row) {
       StatsBar statName = StatsBar.valueOf(this.cboYStat.getValue());
       double val = 0;
       if (statName.equals(StatsBar.getAnnotationDensity)) {
-         val = (double)chunk.getAnnotationDensity();
+         val = engine.getAnnotationDensity(row);
       } else if (statName.equals(StatsBar.getAverageLinkToLinkDistance)) {
-         val = (double)chunk.getAverageLinkToLinkDistance(chainColl);
+         val = engine.getAverageLinkToLinkDistance(row);
       } else if (statName.equals(StatsBar.getAverageLinkLength)) {
-         val = (double)chunk.getAverageLinkLength(chainColl);
+         val = engine.getAverageLinkLength(row);
       } else if (statName.equals(StatsBar.getAverageChainSize)) {
-         val = (double)chunk.getAverageChainSize(chainColl);
+         val = engine.getAverageChainSize(row);
       } else if (statName.equals(StatsBar.getChainCount)) {
-         val = (double)chunk.getChainCount(chainColl);
+         val = (double)engine.getChainCount(row);
       } else if (statName.equals(StatsBar.getLinkCount)) {
-         val = (double)chunk.getLinkCount(chainColl);
+         val = (double)engine.getLinkCount(row);
       } else if (statName.equals(StatsBar.getChainDensity)) {
-         val = (double)chunk.getChainDensity(chainColl);
+         val = engine.getChainDensity(row);
       } else if (statName.equals(StatsBar.getLinkDensity)) {
-         val = (double)chunk.getLinkDensity(chainColl);
-      } else if (statName.equals(StatsBar.getAnnotationDensity)) {
-         val = (double)chunk.getAnnotationDensity();
+         val = engine.getLinkDensity(row);
       } else if (statName.equals(StatsBar.getTokenCount)) {
-         val = (double)chunk.getTokenCount();
+         val = (double)engine.getTokenCount(row);
       }
       return val;
    }
@@ -625,7 +715,7 @@ public class CRViewer extends Application {
       BarChart<String, Number> chart = new BarChart<String, Number>(xAxis, yAxis);
       XYChart.Series<String, Number> seriesStat = new XYChart.Series<>();
       seriesStat.setName(statName);
-      ArrayList<? extends TextChunk> list;
+      List<? extends TextChunk> list;
       if (displayUnit.equals(DisplayUnit.paragraph)) {
          list = this.corpus.getParagraphs();
       } else if (displayUnit.equals(DisplayUnit.part)) {
@@ -649,15 +739,17 @@ public class CRViewer extends Application {
       if (!this.tfDisplayFilter.getText().equals("")) {
          pattern = Pattern.compile(this.tfDisplayFilter.getText());
       }
+      StatsEngine engine = this.collectionCache.getStatsEngine(chainColl, displayUnit.toString(), list);
       double max = 0;
-      for (TextChunk chunk : list) {
-         if (pattern != null && !pattern.matcher(chunk.getId()).find()) {
+      for (int row = 0; row < engine.getRowCount(); row++) {
+         String id = engine.getId(row);
+         if (pattern != null && !pattern.matcher(id).find()) {
             continue;
          }
-         double val = this.getStatValue(chainColl, chunk);
+         double val = this.getStatValue(engine, row);
          if (Double.isNaN(val)) val = 0;
          if (max < val) max = val;
-         seriesStat.getData().add(new XYChart.Data<String,Number>(chunk.getId(), val));
+         seriesStat.getData().add(new XYChart.Data<String,Number>(id, val));
       }
       yAxis.setLowerBound(0);
       yAxis.setUpperBound(max);
@@ -700,13 +792,13 @@ public class CRViewer extends Application {
       table.getItems().addAll(chainColl.getAnnotations());
       if (Annotation.contextWidth == 0) {
          table.getColumns().addAll(
-               new ShortCol<Annotation,String>("Text and Chain", "FullId").col,
-               new ShortCol<Annotation,String>("Text", "Text").col);
+               new ShortCol<Annotation,String>("Text and Chain", Annotation.class, "FullId").col,
+               new ShortCol<Annotation,String>("Text", Annotation.class, "Text").col);
       } else {
          table.getColumns().addAll(
-               new ShortCol<Annotation,String>("Left", "LeftContext").col,
-               new ShortCol<Annotation,String>("Text and Right", "TextWithRightContext").col,
-               new ShortCol<Annotation,String>("Text and Chain", "FullId").col);
+               new ShortCol<Annotation,String>("Left", Annotation.class, "LeftContext").col,
+               new ShortCol<Annotation,String>("Text and Right", Annotation.class, "TextWithRightContext").col,
+               new ShortCol<Annotation,String>("Text and Chain", Annotation.class, "FullId").col);
          table.getColumns().get(0).setStyle("-fx-alignment: CENTER-RIGHT;");
       }
       CRViewer.writeTsv(CRViewer.getTsvFromTableView(table), "output_concordance");
@@ -743,113 +835,58 @@ class ShortCol<T,V> {
       this.col = new TableColumn<T, V>(heading);
       this.col.setSortable(true);
    }
-   public ShortCol(String heading, String methodName) {
-      createCol(heading);
-      this.col.setCellValueFactory(new CustomPropertyValueFactory<T, V>(methodName));
-   }
-   public ShortCol(String heading, String methodName, String propName, String propValue) {
-      createCol(heading);
-      this.col.setCellValueFactory(new CustomPropertyValueFactoryForChainFreq<T, V>(methodName, propName, propValue));
-   }
-   public ShortCol(String heading, String methodName, String propName, String propValue, ChainCollection chainColl) {
+   public ShortCol(String heading, Class<T> rowClass, String methodName) {
       createCol(heading);
-      this.col.setCellValueFactory(new CustomPropertyValueFactoryForChunkFreq<T, V>(methodName, propName, propValue, chainColl));
-   }
-   public ShortCol(String heading, String methodName, ChainCollection chainColl) {
-      createCol(heading);
-      this.col.setCellValueFactory(new CustomPropertyValueFactoryForChunkStats<T, V>(methodName, chainColl));
+      this.col.setCellValueFactory(new CustomPropertyValueFactory<T, V>(rowClass, methodName));
    }
 }
 
 
+/* The method is looked up once, when the column is created, and the value
+ * of each row is computed once.
+ */
 class CustomPropertyValueFactory<T,V> implements Callback<TableColumn.CellDataFeatures<T,V>, ObservableValue<V>> {
    protected String methodName;
-   public CustomPropertyValueFactory(String methodName) {
+   private MethodHandle method;
+   private IdentityHashMap<T,V> values;
+   public CustomPropertyValueFactory(Class<T> rowClass, String methodName) {
       this.methodName = methodName;
+      this.method = getMethodFromName(rowClass, methodName);
+      this.values = new IdentityHashMap<>();
    }
-   protected Method tryMethodFromName(T c, String methodName) throws NoSuchMethodException, SecurityException {
-      return c.getClass().getMethod(methodName);
-   }
-   protected Method getMethodFromName(T c) {
+   /* Looks for methodName(), then for getMethodName(). */
+   private static MethodHandle getMethodFromName(Class<?> rowClass, String methodName) {
+      Method method;
       try {
-         return tryMethodFromName(c, this.methodName);
+         method = rowClass.getMethod(methodName);
       } catch (NoSuchMethodException e) {
          try {
-            return tryMethodFromName(c, "get"+this.methodName);
-         } catch (NoSuchMethodException | SecurityException e1) {
-            e1.printStackTrace();
+            method = rowClass.getMethod("get"+methodName);
+         } catch (NoSuchMethodException e1) {
+            throw new IllegalArgumentException("can't find method '"+methodName+"' in "+rowClass.getName());
          }
-      } catch (SecurityException e) {
-         e.printStackTrace();
       }
-      System.out.println("can't find method '"+this.methodName+"'");
-      System.exit(1);
-      return null;
+      try {
+         return MethodHandles.publicLookup().unreflect(method);
+      } catch (IllegalAccessException e) {
+         throw new IllegalArgumentException("can't access method '"+methodName+"' in "+rowClass.getName(), e);
+      }
    }
    @SuppressWarnings("unchecked")
-   protected V invokeMethod(Method method, T obj) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-      return (V)method.invoke(obj);
-   }
    @Override
    public ObservableValue<V> call(CellDataFeatures<T, V> p) {
       // p.getValue() returns the Person/whatever instance for a particular TableView row
-      try {
-         T obj = p.getValue();
-         Method method = getMethodFromName(obj);
-         return new ReadOnlyObjectWrapper<V>(this.invokeMethod(method, obj));
-      } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-         e.printStackTrace();
+      T obj = p.getValue();
+      V value = this.values.get(obj);
+      if (value == null && !this.values.containsKey(obj)) {
+         try {
+            value = (V)this.method.invoke(obj);
+         } catch (Throwable e) {
+            throw new RuntimeException("can't invoke method '"+this.methodName+"'", e);
+         }
+         this.values.put(obj, value);
       }
-      System.out.println("can't invoke method '"+this.methodName+"'");
-      System.exit(1);
-      return null;
-   }
-}
-
-class CustomPropertyValueFactoryForChainFreq<T,V> extends CustomPropertyValueFactory<T,V> {
-   protected String propName;
-   protected String propValue;
-   protected CustomPropertyValueFactoryForChainFreq(String methodName, String propName, String propValue) {
-      super(methodName);
-      this.propName = propName;
-      this.propValue = propValue;
-   }
-   protected Method tryMethodFromName(T c, String methodName) throws NoSuchMethodException, SecurityException {
-      return c.getClass().getMethod(methodName, String.class, String.class);
-   }
-   @SuppressWarnings("unchecked")
-   public V invokeMethod(Method method, T obj) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-      return (V)method.invoke(obj, this.propName, this.propValue);
-   }
-}
-
-class CustomPropertyValueFactoryForChunkFreq<T,V> extends CustomPropertyValueFactoryForChainFreq<T,V> {
-   protected ChainCollection chainColl;
-   protected CustomPropertyValueFactoryForChunkFreq(String methodName, String propName, String propValue, ChainCollection chainColl) {
-      super(methodName, propName, propValue);
-      this.chainColl = chainColl;
-   }
-   protected Method tryMethodFromName(T c, String methodName) throws NoSuchMethodException, SecurityException {
-      return c.getClass().getMethod(methodName, String.class, String.class, ChainCollection.class);
-   }
-   @SuppressWarnings("unchecked")
-   public V invokeMethod(Method method, T obj) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-      return (V)method.invoke(obj, this.propName, this.propValue, this.chainColl);
-   }
-}
-
-class CustomPropertyValueFactoryForChunkStats<T,V> extends CustomPropertyValueFactory<T,V> {
-   protected ChainCollection chainColl;
-   protected CustomPropertyValueFactoryForChunkStats(String methodName, ChainCollection chainColl) {
-      super(methodName);
-      this.chainColl = chainColl;
-   }
-   protected Method tryMethodFromName(T c, String methodName) throws NoSuchMethodException, SecurityException {
-      return c.getClass().getMethod(methodName, ChainCollection.class);
-   }
-   @SuppressWarnings("unchecked")
-   public V invokeMethod(Method method, T obj) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-      return (V)method.invoke(obj, this.chainColl);
+      return new ReadOnlyObjectWrapper<V>(value);
    }
 }
 
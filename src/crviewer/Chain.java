@@ -32,6 +32,7 @@ public class Chain {
    private ArrayList<Annotation> annotations;
    private String refname;
    private String id;
+   private String fullId;
    private boolean hasChanged;
    private double averageLinkToLinkDistance;
    private double averageLinkLength;
@@ -41,6 +42,7 @@ public class Chain {
       this.annotations = new ArrayList<>();
       this.refname = refname;
       this.id = id;
+      this.fullId = String.format("%s:%s", id, refname);
       this.averageLinkToLinkDistance = 0;
       this.averageLinkLength = 0;
       this.stabilityCoeff = 0;
@@ -66,7 +68,7 @@ public class Chain {
    }
 
    public String getFullId() {
-      return String.format("%s:%s", this.id, this.refname);
+      return this.fullId;
    }
 
    public ArrayList<Annotation> getAnnotations() {
@@ -23,6 +23,8 @@
 package crviewer;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 enum SplitByType {
    text, part, paragraph
@@ -32,85 +34,201 @@ public class ChainCollection {
 
    private Chain[] chains;
    private ArrayList<Annotation> annotations;
+   // the same annotations, for containsAnnotation()
+   private Set<Annotation> annotationSet;
+   // chains by chunk id, in the order of the collection
+   private HashMap<String,ArrayList<Chain>> chainsByChunkId;
    private HashMap<String,ArrayList<String>> propertyMap;
    private ArrayList<String> propertyList;
+   // what the collection was built from, to derive narrower collections
+   private AnnotationIndex index;
+   private SplitByType splitBy;
+   private ChainFilter filter;
+   // for each chain, its size before the property filter, and the numbers
+   // of its annotations in the index
+   private int[] selectionSizes;
+   private int[][] annotationNumbers;
 
+   /* The annotations are selected on the annotation index of the corpus,
+    * then the chunks are split into ranges whose chains are found in
+    * parallel (see ChainHunt).  The chains are selected on their size before
+    * the property filter, which is then only evaluated on the annotations of
+    * the selected chains.  The results of the ranges are put together in the
+    * order of the chunks, so the collection is the same as if the chunks had
+    * been read one after the other.
+    */
    public ChainCollection(Corpus corpus, SplitByType splitBy, ChainFilter filter) {
-      ArrayList<Chain> tmpChains = new ArrayList<>();
-      ArrayList<? extends TextChunk> chunks;
-      if (splitBy == SplitByType.text) {
-         chunks = corpus.getTexts();
-      } else if (splitBy == SplitByType.part) {
-         chunks = corpus.getParts();
-      } else {
-         chunks = corpus.getParagraphs();
-      }
-      for (TextChunk chunk : chunks) {
-         if (!filter.checkChunkTextId(chunk)) continue;
-         huntForChains(chunk, tmpChains, filter);
-      }
+      AnnotationIndex index = corpus.getAnnotationIndex();
+      BitSet selected = filter.selectAnnotations(index, splitBy);
+      ArrayList<ChainHunt> hunts = ChainHunt.split(index, splitBy, filter, selected);
+      ChainHunt.invoke(hunts, ChainHunt.HUNT, null);
       int size = 0;
-      for (Chain chain : tmpChains) {
-         if (filter.checkChain(chain)) size++;
+      for (ChainHunt hunt : hunts) {
+         size += hunt.getChainCount();
       }
+      BitSet kept = null;
+      if (filter.hasPropertyFilter()) {
+         BitSet candidates = new BitSet(index.getAnnotationCount());
+         for (ChainHunt hunt : hunts) {
+            candidates.or(hunt.getCandidates());
+         }
+         kept = filter.selectAnnotationsWithPropertyFilter(index, candidates);
+      }
+      ChainHunt.invoke(hunts, ChainHunt.FINISH, kept);
       this.chains = new Chain[size];
+      this.selectionSizes = new int[size];
+      this.annotationNumbers = new int[size][];
       int i = 0;
-      for (Chain chain : tmpChains) {
-         if (filter.checkChain(chain)) this.chains[i++] = chain;
+      for (ChainHunt hunt : hunts) {
+         for (int j = 0; j < hunt.getChainCount(); j++) {
+            this.chains[i] = hunt.getChain(j);
+            this.selectionSizes[i] = hunt.getSelectionSize(j);
+            this.annotationNumbers[i++] = hunt.getAnnotationNumbers(j);
+         }
       }
-      this.applyPropertyFilter(tmpChains, filter);
-      this.annotations = new ArrayList<Annotation>();
+      this.index = index;
+      this.splitBy = splitBy;
+      this.filter = filter;
+      this.sortAnnotations();
+      this.annotationSet = Collections.newSetFromMap(new IdentityHashMap<Annotation, Boolean>(this.annotations.size()));
+      this.annotationSet.addAll(this.annotations);
+      this.groupChainsByChunkId();
+   }
+
+   /* Sorts the annotations of the chains by index, as a stable sort would
+    * do: each index is packed with the position of the annotation in the
+    * chains into a long, and the longs are sorted in parallel.
+    */
+   private void sortAnnotations() {
+      int count = 0;
       for (Chain chain : this.chains) {
-         this.annotations.addAll(chain.getAnnotations());
-      }
-      Collections.sort(this.annotations);
-   }
-
-   private void huntForChains(TextChunk chunk, ArrayList<Chain> tmpChains, ChainFilter filter) {
-      for (Annotation annot : chunk.getAnnotations()) {
-         if (!filter.checkAnnotation(annot)) continue;
-         String refname = annot.getRefname();
-         String chunkFullId = chunk.getId();
-         boolean found = false;
-         for (Chain chain : tmpChains) {
-            if (chain.getRefname().equals(refname) && chain.getId().equals(chunkFullId)) {
-               chain.addAnnotation(annot);
-               found = true;
-               break;
-            }
+         count += chain.getSize();
+      }
+      Annotation[] annots = new Annotation[count];
+      long[] keys = new long[count];
+      int pos = 0;
+      for (Chain chain : this.chains) {
+         for (Annotation annot : chain.getAnnotations()) {
+            annots[pos] = annot;
+            keys[pos] = ((long)annot.getIndex() << 32) | pos;
+            pos++;
+         }
+      }
+      Arrays.parallelSort(keys);
+      this.annotations = new ArrayList<Annotation>(count);
+      for (long key : keys) {
+         this.annotations.add(annots[(int)key]);
+      }
+   }
+
+   /* A narrower collection, see refine().  The chains of the parent are
+    * selected on their refname, chunk id and size before the property
+    * filter, then their annotations are checked with the property criteria
+    * the parent didn't have.
+    */
+   private ChainCollection(ChainCollection parent, ChainFilter filter) {
+      this.index = parent.index;
+      this.splitBy = parent.splitBy;
+      this.filter = filter;
+      ArrayList<Integer> parentChains = new ArrayList<>();
+      BitSet candidates = new BitSet(this.index.getAnnotationCount());
+      for (int i = 0; i < parent.chains.length; i++) {
+         if (!filter.checkRefinedChain(parent.chains[i], parent.selectionSizes[i])) continue;
+         parentChains.add(i);
+         for (int n : parent.annotationNumbers[i]) {
+            candidates.set(n);
          }
-         if (!found) {
-            Chain chain = new Chain(refname, chunkFullId);
-            tmpChains.add(chain);
+      }
+      BitSet kept = filter.selectAnnotationsWithPropertyFilter(this.index, candidates, parent.filter);
+      int size = parentChains.size();
+      this.chains = new Chain[size];
+      this.selectionSizes = new int[size];
+      this.annotationNumbers = new int[size][];
+      this.annotationSet = Collections.newSetFromMap(new IdentityHashMap<Annotation, Boolean>(kept.cardinality()));
+      for (int i = 0; i < size; i++) {
+         int p = parentChains.get(i);
+         Chain parentChain = parent.chains[p];
+         Chain chain = new Chain(parentChain.getRefname(), parentChain.getId());
+         int[] numbers = new int[parent.annotationNumbers[p].length];
+         int count = 0;
+         for (int n : parent.annotationNumbers[p]) {
+            if (!kept.get(n)) continue;
+            Annotation annot = this.index.getAnnotation(n);
             chain.addAnnotation(annot);
+            this.annotationSet.add(annot);
+            numbers[count++] = n;
          }
+         this.chains[i] = chain;
+         this.selectionSizes[i] = parent.selectionSizes[p];
+         this.annotationNumbers[i] = count == numbers.length ? numbers : Arrays.copyOf(numbers, count);
+      }
+      // the annotations of the parent are already sorted
+      this.annotations = new ArrayList<Annotation>(this.annotationSet.size());
+      for (Annotation annot : parent.annotations) {
+         if (this.annotationSet.contains(annot)) this.annotations.add(annot);
       }
+      this.groupChainsByChunkId();
    }
-   
-   private void applyPropertyFilter(ArrayList<Chain> tmpChains, ChainFilter filter) {
-      for (Chain chain : tmpChains) {
-         ArrayList<Annotation> newList = new ArrayList<>();
-         for (Annotation annot : chain.getAnnotations()) {
-            if (!filter.checkAnnotationWithPropertyFilter(annot)) {
-               continue;
-            }
-            newList.add(annot);
+
+   private void groupChainsByChunkId() {
+      this.chainsByChunkId = new HashMap<>();
+      for (Chain chain : this.chains) {
+         ArrayList<Chain> chunkChains = this.chainsByChunkId.get(chain.getId());
+         if (chunkChains == null) {
+            chunkChains = new ArrayList<>();
+            this.chainsByChunkId.put(chain.getId(), chunkChains);
          }
-         chain.setAnnotations(newList);
+         chunkChains.add(chain);
       }
    }
 
-   public boolean containsAnnotation(Annotation annot) {
+   /* Returns true if the selection of the filter is part of the selection of
+    * this collection, so that refine() can derive it.
+    */
+   public boolean canRefine(SplitByType splitBy, ChainFilter filter) {
+      return splitBy == this.splitBy && filter.isRefinementOf(this.filter);
+   }
+
+   /* Returns the collection of the filter, derived from the chains and
+    * annotations of this collection rather than from the whole corpus.  The
+    * filter must be a refinement of the filter of this collection (see
+    * ChainFilter.isRefinementOf()).  The chains are new ones: the chains of
+    * this collection are not changed.
+    */
+   public ChainCollection refine(ChainFilter filter) {
+      if (!filter.isRefinementOf(this.filter)) {
+         throw new IllegalArgumentException("The filter doesn't narrow the selection of the collection.");
+      }
+      return new ChainCollection(this, filter);
+   }
+
+   /* Sets the full id of the annotations back to the one of their chain.
+    * An annotation keeps the full id of the last chain it was added to, so
+    * building another collection of the corpus changes it.
+    */
+   public void restoreFullIds() {
       for (Chain chain : this.chains) {
-         if (chain.getAnnotations().contains(annot))
-            return true;
+         String fullId = chain.getFullId();
+         for (Annotation annot : chain.getAnnotations()) {
+            annot.setFullId(fullId);
+         }
       }
-      return false;
+   }
+
+   public boolean containsAnnotation(Annotation annot) {
+      return this.annotationSet.contains(annot);
    }
    
    public Chain[] getChains() {
       return chains;
    }
+
+   /* Returns the chains found in the chunk of this id (read-only). */
+   public List<Chain> getChains(String chunkId) {
+      ArrayList<Chain> chunkChains = this.chainsByChunkId.get(chunkId);
+      if (chunkChains == null) return Collections.emptyList();
+      return Collections.unmodifiableList(chunkChains);
+   }
    
    public HashMap<String,ArrayList<String>> getPropertyMap() {
       if (this.propertyMap == null) {
@@ -144,3 +262,237 @@ public class ChainCollection {
       return this.annotations;
    }
 }
+
+/* The chains of a range of chunks, found independently of the other ranges,
+ * in two steps: HUNT builds the chains and selects them on their size (and
+ * gives the annotations to check with the property filter), FINISH keeps the
+ * annotations that passed the property filter and computes the statistics of
+ * the chains.  When two chunks have the same id, their chains are merged, so
+ * all the chunks are then in one range.
+ */
+class ChainHunt {
+   public static final int HUNT = 0;
+   public static final int FINISH = 1;
+   // the number of annotations of the corpus above which a range is split
+   private static final int RANGE_SIZE = 20000;
+
+   private AnnotationIndex index;
+   private SplitByType splitBy;
+   private ChainFilter filter;
+   private BitSet selected;
+   private int fromChunk;
+   private int toChunk;
+   // all the chains found, and the position in that list of the chain of
+   // each selected annotation of the range
+   private ArrayList<Chain> allChains;
+   private int[] chainOfSelected;
+   // the position of each chain among the chains selected on their size, or -1
+   private int[] selectedPositions;
+   private ArrayList<Chain> chains;
+   private int[] selectionSizes;
+   private int[][] annotationNumbers;
+   private BitSet candidates;
+
+   private ChainHunt(AnnotationIndex index, SplitByType splitBy, ChainFilter filter, BitSet selected,
+         int fromChunk, int toChunk) {
+      this.index = index;
+      this.splitBy = splitBy;
+      this.filter = filter;
+      this.selected = selected;
+      this.fromChunk = fromChunk;
+      this.toChunk = toChunk;
+   }
+
+   /* Splits the chunks into ranges of about RANGE_SIZE annotations. */
+   public static ArrayList<ChainHunt> split(AnnotationIndex index, SplitByType splitBy, ChainFilter filter,
+         BitSet selected) {
+      ArrayList<ChainHunt> hunts = new ArrayList<>();
+      int chunkCount = index.getChunkCount(splitBy);
+      if (!index.hasUniqueChunkIds(splitBy)) {
+         hunts.add(new ChainHunt(index, splitBy, filter, selected, 0, chunkCount));
+         return hunts;
+      }
+      int from = 0;
+      for (int c = 0; c < chunkCount; c++) {
+         if (index.getChunkEnd(splitBy, c) - index.getChunkStart(splitBy, from) >= RANGE_SIZE) {
+            hunts.add(new ChainHunt(index, splitBy, filter, selected, from, c + 1));
+            from = c + 1;
+         }
+      }
+      if (from < chunkCount || hunts.isEmpty()) {
+         hunts.add(new ChainHunt(index, splitBy, filter, selected, from, chunkCount));
+      }
+      return hunts;
+   }
+
+   /* Runs a step on all the ranges, in the common fork/join pool if there is
+    * more than one and more than one processor.
+    */
+   public static void invoke(ArrayList<ChainHunt> hunts, int step, BitSet kept) {
+      if (hunts.size() == 1 || ForkJoinPool.getCommonPoolParallelism() <= 1) {
+         for (ChainHunt hunt : hunts) {
+            hunt.run(step, kept);
+         }
+      } else {
+         ForkJoinPool.commonPool().invoke(new ChainHuntTask(hunts, 0, hunts.size(), step, kept));
+      }
+   }
+
+   public void run(int step, BitSet kept) {
+      if (step == HUNT) {
+         this.hunt();
+      } else {
+         this.finish(kept);
+      }
+   }
+
+   /* Chains are indexed by chunk id, then by refname, so each annotation
+    * finds its chain in constant time.
+    */
+   private void hunt() {
+      this.allChains = new ArrayList<>();
+      this.chainOfSelected = new int[64];
+      HashMap<String,HashMap<String,Integer>> chainIndex = new HashMap<>();
+      int k = 0;
+      for (int c = this.fromChunk; c < this.toChunk; c++) {
+         int start = this.selected.nextSetBit(this.index.getChunkStart(this.splitBy, c));
+         int end = this.index.getChunkEnd(this.splitBy, c);
+         if (start == -1) break;
+         if (start >= end) continue;
+         String chunkFullId = this.index.getChunk(this.splitBy, c).getId();
+         HashMap<String,Integer> chunkChains = chainIndex.get(chunkFullId);
+         if (chunkChains == null) {
+            chunkChains = new HashMap<>();
+            chainIndex.put(chunkFullId, chunkChains);
+         }
+         for (int i = start; i != -1 && i < end; i = this.selected.nextSetBit(i + 1)) {
+            Annotation annot = this.index.getAnnotation(i);
+            String refname = annot.getRefname();
+            Integer pos = chunkChains.get(refname);
+            if (pos == null) {
+               pos = this.allChains.size();
+               this.allChains.add(new Chain(refname, chunkFullId));
+               chunkChains.put(refname, pos);
+            }
+            this.allChains.get(pos).addAnnotation(annot);
+            if (k == this.chainOfSelected.length) {
+               this.chainOfSelected = Arrays.copyOf(this.chainOfSelected, k * 2);
+            }
+            this.chainOfSelected[k++] = pos;
+         }
+      }
+      this.selectedPositions = new int[this.allChains.size()];
+      this.chains = new ArrayList<>();
+      for (int i = 0; i < this.allChains.size(); i++) {
+         Chain chain = this.allChains.get(i);
+         if (this.filter.checkChain(chain)) {
+            this.selectedPositions[i] = this.chains.size();
+            this.chains.add(chain);
+         } else {
+            this.selectedPositions[i] = -1;
+         }
+      }
+      this.selectionSizes = new int[this.chains.size()];
+      for (int i = 0; i < this.chains.size(); i++) {
+         this.selectionSizes[i] = this.chains.get(i).getSize();
+      }
+      if (this.filter.hasPropertyFilter()) {
+         this.candidates = new BitSet();
+         k = 0;
+         for (int i = this.firstSelected(); i != -1 && i < this.getEnd(); i = this.selected.nextSetBit(i + 1)) {
+            if (this.selectedPositions[this.chainOfSelected[k++]] != -1) this.candidates.set(i);
+         }
+      }
+   }
+
+   /* kept is null when there is no property filter. */
+   private void finish(BitSet kept) {
+      if (kept != null) {
+         for (Chain chain : this.chains) {
+            chain.setAnnotations(new ArrayList<Annotation>());
+         }
+      }
+      this.annotationNumbers = new int[this.chains.size()][];
+      int[] counts = new int[this.chains.size()];
+      for (int i = 0; i < this.chains.size(); i++) {
+         this.annotationNumbers[i] = new int[this.selectionSizes[i]];
+      }
+      int k = 0;
+      for (int i = this.firstSelected(); i != -1 && i < this.getEnd(); i = this.selected.nextSetBit(i + 1)) {
+         int pos = this.selectedPositions[this.chainOfSelected[k++]];
+         if (pos == -1 || (kept != null && !kept.get(i))) continue;
+         if (kept != null) this.chains.get(pos).addAnnotation(this.index.getAnnotation(i));
+         this.annotationNumbers[pos][counts[pos]++] = i;
+      }
+      for (int i = 0; i < this.chains.size(); i++) {
+         if (counts[i] < this.annotationNumbers[i].length) {
+            this.annotationNumbers[i] = Arrays.copyOf(this.annotationNumbers[i], counts[i]);
+         }
+         this.chains.get(i).computeStatistics();
+      }
+      this.allChains = null;
+      this.chainOfSelected = null;
+      this.selectedPositions = null;
+   }
+
+   private int firstSelected() {
+      if (this.fromChunk == this.toChunk) return -1;
+      return this.selected.nextSetBit(this.index.getChunkStart(this.splitBy, this.fromChunk));
+   }
+
+   private int getEnd() {
+      if (this.fromChunk == this.toChunk) return 0;
+      return this.index.getChunkEnd(this.splitBy, this.toChunk - 1);
+   }
+
+   public int getChainCount() {
+      return this.chains.size();
+   }
+
+   public Chain getChain(int i) {
+      return this.chains.get(i);
+   }
+
+   public int getSelectionSize(int i) {
+      return this.selectionSizes[i];
+   }
+
+   public int[] getAnnotationNumbers(int i) {
+      return this.annotationNumbers[i];
+   }
+
+   public BitSet getCandidates() {
+      return this.candidates;
+   }
+}
+
+/* Runs a step of the chain hunts from..to-1, splitting them in two halves
+ * until there is only one.
+ */
+class ChainHuntTask extends RecursiveAction {
+   private static final long serialVersionUID = 1L;
+   private ArrayList<ChainHunt> hunts;
+   private int from;
+   private int to;
+   private int step;
+   private BitSet kept;
+
+   public ChainHuntTask(ArrayList<ChainHunt> hunts, int from, int to, int step, BitSet kept) {
+      this.hunts = hunts;
+      this.from = from;
+      this.to = to;
+      this.step = step;
+      this.kept = kept;
+   }
+
+   @Override
+   protected void compute() {
+      if (this.to - this.from == 1) {
+         this.hunts.get(this.from).run(this.step, this.kept);
+      } else {
+         int mid = (this.from + this.to) / 2;
+         invokeAll(new ChainHuntTask(this.hunts, this.from, mid, this.step, this.kept),
+               new ChainHuntTask(this.hunts, mid, this.to, this.step, this.kept));
+      }
+   }
+}
@@ -0,0 +1,163 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* The last chain collections built on a corpus, with the frequency cubes and
+ * statistics computed from them, so that changing only how a selection is
+ * displayed doesn't rebuild it.  A collection is found by the signature of
+ * its filter, its split type and the stability coefficient settings (the
+ * chains compute their coefficient with the settings of the moment).  A
+ * selection that narrows a cached one is derived from it.
+ *
+ * The size of the cache is the total number of chains and annotations of the
+ * collections it keeps, the least recently used ones being dropped first.
+ * The frequency cubes and statistics kept with a collection are not counted
+ * (there is at most one of each per display unit).  The size is set with
+ * the crviewer.collectioncache system property (0 disables the cache).  The
+ * cache is emptied when the corpus changes.
+ */
+public class ChainCollectionCache {
+
+   public static final long DEFAULT_SIZE = 2000000;
+
+   private static class Entry {
+      public ChainCollection chainColl;
+      public long size;
+      public HashMap<String,FrequencyCube> cubes = new HashMap<>();
+      public HashMap<String,StatsEngine> engines = new HashMap<>();
+   }
+
+   private long maxSize;
+   private long size;
+   private AnnotationIndex index;
+   // in access order, the least recently used first
+   private LinkedHashMap<String,Entry> entries;
+
+   public ChainCollectionCache() {
+      this(Long.getLong("crviewer.collectioncache", DEFAULT_SIZE));
+   }
+
+   public ChainCollectionCache(long maxSize) {
+      this.maxSize = maxSize;
+      this.size = 0;
+      this.entries = new LinkedHashMap<>(16, 0.75f, true);
+   }
+
+   public static String getSignature(SplitByType splitBy, ChainFilter filter) {
+      String value = Chain.stabilityCoeffValue == null ? null : Chain.stabilityCoeffValue.pattern();
+      return String.format("%s|%s|%s|%s", splitBy, ChainFilter.quote(Chain.stabilityCoeffProperty),
+            ChainFilter.quote(value), filter.getSignature());
+   }
+
+   public ChainCollection get(Corpus corpus, SplitByType splitBy, ChainFilter filter) {
+      AnnotationIndex index = corpus.getAnnotationIndex();
+      if (index != this.index) {
+         this.clear();
+         this.index = index;
+      }
+      String signature = getSignature(splitBy, filter);
+      Entry entry = this.entries.get(signature);
+      if (entry != null) {
+         // the collections built since have changed the full ids
+         entry.chainColl.restoreFullIds();
+         return entry.chainColl;
+      }
+      ChainCollection chainColl = this.build(corpus, splitBy, filter);
+      entry = new Entry();
+      entry.chainColl = chainColl;
+      entry.size = chainColl.getChains().length + chainColl.getAnnotations().size();
+      if (entry.size > this.maxSize) return chainColl;
+      this.entries.put(signature, entry);
+      this.size += entry.size;
+      Iterator<Map.Entry<String,Entry>> it = this.entries.entrySet().iterator();
+      while (this.size > this.maxSize) {
+         Entry eldest = it.next().getValue();
+         it.remove();
+         this.size -= eldest.size;
+      }
+      return chainColl;
+   }
+
+   /* Derives the collection from the smallest cached collection it narrows,
+    * if any (the chains of a derived collection are new ones, so the
+    * stability settings of the other collection don't matter).
+    */
+   private ChainCollection build(Corpus corpus, SplitByType splitBy, ChainFilter filter) {
+      ChainCollection parent = null;
+      for (Entry entry : this.entries.values()) {
+         if (!entry.chainColl.canRefine(splitBy, filter)) continue;
+         if (parent == null || entry.chainColl.getAnnotations().size() < parent.getAnnotations().size()) {
+            parent = entry.chainColl;
+         }
+      }
+      if (parent != null) return parent.refine(filter);
+      return new ChainCollection(corpus, splitBy, filter);
+   }
+
+   /* The frequency cube of the chunks of a display unit (or of the chains if
+    * chunks is null), kept with the collection.
+    */
+   public FrequencyCube getFrequencyCube(ChainCollection chainColl, String unit, List<? extends TextChunk> chunks) {
+      Entry entry = this.findEntry(chainColl);
+      FrequencyCube cube = entry == null ? null : entry.cubes.get(unit);
+      if (cube == null) {
+         cube = chunks == null ? new FrequencyCube(chainColl) : new FrequencyCube(chainColl, chunks);
+         if (entry != null) entry.cubes.put(unit, cube);
+      }
+      return cube;
+   }
+
+   /* The statistics of the chunks of a display unit, kept with the
+    * collection.
+    */
+   public StatsEngine getStatsEngine(ChainCollection chainColl, String unit, List<? extends TextChunk> chunks) {
+      Entry entry = this.findEntry(chainColl);
+      StatsEngine engine = entry == null ? null : entry.engines.get(unit);
+      if (engine == null) {
+         engine = new StatsEngine(chainColl, chunks);
+         if (entry != null) entry.engines.put(unit, engine);
+      }
+      return engine;
+   }
+
+   private Entry findEntry(ChainCollection chainColl) {
+      for (Entry entry : this.entries.values()) {
+         if (entry.chainColl == chainColl) return entry;
+      }
+      return null;
+   }
+
+   public void clear() {
+      this.entries.clear();
+      this.size = 0;
+      this.index = null;
+   }
+
+}
@@ -23,21 +23,53 @@
 package crviewer;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 public class ChainFilter {
    
+   /* A criterion on a property.  The value of a flag of expansion_ (flag
+    * not -1) is "yes" or "no", so the regex is matched against these two
+    * values once, and the flag is tested on the bitmask of the annotation.
+    */
    private class PropertyFilter {
       public String name;
-      public Pattern regex;
+      public PatternTest regex;
+      public int flag;
+      public boolean yes;
+      public boolean no;
       public PropertyFilter(String name, String regex) {
          this.name = name;
-         this.regex = Pattern.compile(regex);
+         this.regex = PatternTest.compile(regex);
+         this.flag = ExpansionFlags.getFlagOfKey(name);
+         this.yes = this.regex.matches("yes");
+         this.no = this.regex.matches("no");
       }
+      public boolean checkFlag(Annotation annot) {
+         if (annot.hasExpansionFlags(1 << this.flag)) return this.yes;
+         return this.no && annot.hasExpansion();
+      }
+   }
+
+   /* A criterion of the filter, evaluated on the annotation index: the
+    * values that match, and the number of annotations that have them.
+    */
+   private static class Criterion {
+      public PropertyFilter filter;
+      public Set<String> values;
+      public long freq;
    }
+
    private int minSize;
-   private Pattern refname;
-   private Pattern textId;
+   private PatternTest refname;
+   private PatternTest textId;
    private ArrayList<PropertyFilter> properties;
    public ChainFilter(int minSize) {
       this.minSize = minSize;
@@ -49,24 +81,24 @@ public class ChainFilter {
       if (refname.equals("")) {
          this.refname = null;
       } else {
-         this.refname = Pattern.compile(refname);
+         this.refname = PatternTest.compile(refname);
       }
    }
    public void setTextId(String textId) {
       if (textId.equals("")) {
          this.textId = null;
       } else {
-         this.textId = Pattern.compile(textId);
+         this.textId = PatternTest.compile(textId);
       }
    }
    public void addPropertyFilter(String name, String regex) {
       this.properties.add(new PropertyFilter(name, regex));
    }
    public boolean checkChunkTextId(TextChunk chunk) {
-      return this.textId == null || this.textId.matcher(chunk.getId()).find();
+      return this.textId == null || this.textId.matches(chunk.getId());
    }
    public boolean checkAnnotation(Annotation annot) {
-      if (this.refname != null && !this.refname.matcher(annot.getRefname()).find()) return false;
+      if (this.refname != null && !this.refname.matches(annot.getRefname())) return false;
       /*for (PropertyFilter filter : this.properties) {
          if (!annot.hasProperty(filter.name)) return false;
          if (!filter.regex.matcher(annot.getProperty(filter.name)).find()) return false;
@@ -76,13 +108,261 @@ public class ChainFilter {
    }
    public boolean checkAnnotationWithPropertyFilter(Annotation annot) {
       for (PropertyFilter filter : this.properties) {
+         if (filter.flag != -1) {
+            if (!filter.checkFlag(annot)) return false;
+            continue;
+         }
          if (!annot.hasProperty(filter.name)) return false;
-         if (!filter.regex.matcher(annot.getProperty(filter.name)).find()) return false;
+         if (!filter.regex.matches(annot.getProperty(filter.name))) return false;
          //if (!annot.getProperty(filter.name).matches(filter.regex)) return false;
       }
       return true;
    }
+   public boolean hasPropertyFilter() {
+      return !this.properties.isEmpty();
+   }
+
+   /* Same as checkChunkTextId() and checkAnnotation(), for all the
+    * annotations of the index at once: the regexes are matched against the
+    * chunk ids and the distinct refnames only.  A refname with fewer
+    * annotations than the minimum size can't make a chain large enough, so
+    * it is left out here already.
+    */
+   public BitSet selectAnnotations(AnnotationIndex index, SplitByType splitBy) {
+      BitSet bits = new BitSet(index.getAnnotationCount());
+      if (this.refname == null && this.minSize <= 1) {
+         bits.set(0, index.getAnnotationCount());
+      } else {
+         Collection<String> refnames = index.getRefnames();
+         if (this.refname != null) refnames = this.refname.select(refnames);
+         for (String refname : refnames) {
+            if (index.getRefnameFreq(refname) >= this.minSize) index.addRefname(refname, bits);
+         }
+      }
+      if (this.textId != null && !bits.isEmpty()) {
+         BitSet chunkBits = new BitSet(index.getAnnotationCount());
+         for (int i = 0; i < index.getChunkCount(splitBy); i++) {
+            if (this.checkChunkTextId(index.getChunk(splitBy, i))) {
+               chunkBits.set(index.getChunkStart(splitBy, i), index.getChunkEnd(splitBy, i));
+            }
+         }
+         bits.and(chunkBits);
+      }
+      return bits;
+   }
+
+   /* Same as checkAnnotationWithPropertyFilter(), for the candidate
+    * annotations of the index.  The criteria are taken from the most
+    * selective to the least, according to the number of annotations of the
+    * matching values.  A criterion either intersects the candidates with the
+    * bitmap of its values, or, when there are fewer candidates left than
+    * annotations in that bitmap, checks the value of each candidate.  A flag
+    * of expansion_ is always checked on each candidate.
+    */
+   public BitSet selectAnnotationsWithPropertyFilter(AnnotationIndex index, BitSet candidates) {
+      return this.selectAnnotationsWithPropertyFilter(index, candidates, null);
+   }
+
+   /* Same as above, without the property criteria that the other filter
+    * (if not null) has too: the candidates have already been checked with
+    * them.
+    */
+   public BitSet selectAnnotationsWithPropertyFilter(AnnotationIndex index, BitSet candidates, ChainFilter applied) {
+      ArrayList<Criterion> plan = new ArrayList<>();
+      for (PropertyFilter filter : this.properties) {
+         if (applied != null && applied.hasPropertyFilter(filter)) continue;
+         Criterion criterion = new Criterion();
+         criterion.filter = filter;
+         if (filter.flag != -1) {
+            int freq = index.getExpansionFlagFreq(filter.flag);
+            if (filter.yes) criterion.freq += freq;
+            if (filter.no) criterion.freq += index.getExpansionCount() - freq;
+         } else {
+            criterion.values = filter.regex.select(index.getPropertyValues(filter.name));
+            for (String value : criterion.values) {
+               criterion.freq += index.getPropertyFreq(filter.name, value);
+            }
+         }
+         plan.add(criterion);
+      }
+      Collections.sort(plan, new Comparator<Criterion>() {
+         @Override
+         public int compare(Criterion c1, Criterion c2) {
+            return Long.compare(c1.freq, c2.freq);
+         }
+      });
+      BitSet bits = (BitSet)candidates.clone();
+      for (Criterion criterion : plan) {
+         int count = bits.cardinality();
+         if (count == 0) break;
+         PropertyFilter filter = criterion.filter;
+         if (filter.flag != -1) {
+            for (int i = bits.nextSetBit(0); i != -1; i = bits.nextSetBit(i + 1)) {
+               if (!filter.checkFlag(index.getAnnotation(i))) bits.clear(i);
+            }
+         } else if (count < criterion.freq) {
+            for (int i = bits.nextSetBit(0); i != -1; i = bits.nextSetBit(i + 1)) {
+               String value = index.getAnnotation(i).getProperty(filter.name);
+               if (value == null || !criterion.values.contains(value)) bits.clear(i);
+            }
+         } else {
+            BitSet criterionBits = new BitSet(index.getAnnotationCount());
+            for (String value : criterion.values) {
+               index.addPropertyValue(filter.name, value, criterionBits);
+            }
+            bits.and(criterionBits);
+         }
+      }
+      return bits;
+   }
+
    public boolean checkChain(Chain chain) {
       return chain.getSize() >= this.minSize;
    }
+
+   /* Same as checkChunkTextId(), checkAnnotation() and checkChain() for a
+    * chain of a collection being refined, with its size before the property
+    * filter: all the annotations of a chain have the same refname and chunk.
+    */
+   public boolean checkRefinedChain(Chain chain, int selectionSize) {
+      return selectionSize >= this.minSize
+            && (this.refname == null || this.refname.matches(chain.getRefname()))
+            && (this.textId == null || this.textId.matches(chain.getId()));
+   }
+
+   /* Returns true if this filter selects a part of what the other filter
+    * selects, in a way that can be told from the chains of the other filter:
+    * a minimum size at least as large, a refname and a text id regex that
+    * are either the same or were not set in the other filter, and at least
+    * the property criteria of the other filter.
+    */
+   public boolean isRefinementOf(ChainFilter filter) {
+      if (Math.max(this.minSize, 1) < Math.max(filter.minSize, 1)) return false;
+      if (filter.refname != null && !samePattern(this.refname, filter.refname)) return false;
+      if (filter.textId != null && !samePattern(this.textId, filter.textId)) return false;
+      for (PropertyFilter property : filter.properties) {
+         if (!this.hasPropertyFilter(property)) return false;
+      }
+      return true;
+   }
+
+   private boolean hasPropertyFilter(PropertyFilter property) {
+      for (PropertyFilter filter : this.properties) {
+         if (filter.name.equals(property.name) && samePattern(filter.regex, property.regex)) return true;
+      }
+      return false;
+   }
+
+   private static boolean samePattern(PatternTest test1, PatternTest test2) {
+      return test1 != null && test2 != null && test1.getPattern().pattern().equals(test2.getPattern().pattern());
+   }
+
+   /* A string that is the same for two filters that select the same chains:
+    * the order of the property criteria doesn't matter, and all the minimum
+    * sizes below 1 are the same.
+    */
+   public String getSignature() {
+      TreeSet<String> properties = new TreeSet<>();
+      for (PropertyFilter filter : this.properties) {
+         properties.add(quote(filter.name) + quote(filter.regex.getPattern().pattern()));
+      }
+      StringBuilder sb = new StringBuilder();
+      sb.append(Math.max(this.minSize, 1)).append('|');
+      sb.append(quote(this.refname == null ? null : this.refname.getPattern().pattern()));
+      sb.append(quote(this.textId == null ? null : this.textId.getPattern().pattern()));
+      for (String property : properties) {
+         sb.append(property);
+      }
+      return sb.toString();
+   }
+
+   /* Prefixes the string with its length, so that signatures can't be
+    * ambiguous.
+    */
+   static String quote(String s) {
+      return s == null ? "-" : s.length() + ":" + s;
+   }
+}
+
+/* A regex of a filter, used with find().  A plain string, possibly anchored
+ * with ^ or $, is compared directly, and a string anchored at both ends is
+ * looked up in a set of values instead of being matched against each of
+ * them.  Values never contain line breaks, so $ is the end of the value.
+ */
+class PatternTest {
+   private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+   private static final int FIND = 0;
+   private static final int CONTAINS = 1;
+   private static final int PREFIX = 2;
+   private static final int SUFFIX = 3;
+   private static final int EQUALS = 4;
+
+   private Pattern pattern;
+   private String literal;
+   private int kind;
+
+   private PatternTest(Pattern pattern, String literal, int kind) {
+      this.pattern = pattern;
+      this.literal = literal;
+      this.kind = kind;
+   }
+
+   public static PatternTest compile(String regex) {
+      Pattern pattern = Pattern.compile(regex);
+      StringBuilder literal = new StringBuilder();
+      boolean start = false;
+      boolean end = false;
+      for (int i = 0; i < regex.length(); i++) {
+         char c = regex.charAt(i);
+         if (c == '^' && i == 0) {
+            start = true;
+         } else if (c == '$' && i == regex.length() - 1) {
+            end = true;
+         } else if (c == '\\') {
+            // an escaped punctuation character stands for itself
+            if (i + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+               return new PatternTest(pattern, null, FIND);
+            }
+            literal.append(regex.charAt(++i));
+         } else if (METACHARACTERS.indexOf(c) != -1) {
+            return new PatternTest(pattern, null, FIND);
+         } else {
+            literal.append(c);
+         }
+      }
+      int kind = start ? (end ? EQUALS : PREFIX) : (end ? SUFFIX : CONTAINS);
+      return new PatternTest(pattern, literal.toString(), kind);
+   }
+
+   public Pattern getPattern() {
+      return this.pattern;
+   }
+
+   public boolean matches(String s) {
+      switch (this.kind) {
+         case CONTAINS:
+            return s.contains(this.literal);
+         case PREFIX:
+            return s.startsWith(this.literal);
+         case SUFFIX:
+            return s.endsWith(this.literal);
+         case EQUALS:
+            return s.equals(this.literal);
+         default:
+            return this.pattern.matcher(s).find();
+      }
+   }
+
+   /* The values of the collection that match. */
+   public Set<String> select(Collection<String> values) {
+      if (this.kind == EQUALS) {
+         if (values.contains(this.literal)) return Collections.singleton(this.literal);
+         return Collections.emptySet();
+      }
+      Set<String> res = new HashSet<>();
+      for (String value : values) {
+         if (this.matches(value)) res.add(value);
+      }
+      return res;
+   }
 }
@@ -0,0 +1,232 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/* Corpus-wide chain statistics, accumulated one text at a time, so that the
+ * whole corpus never has to be in memory: see compute().  The values are the
+ * same as those of the Corpus methods on a ChainCollection of the whole
+ * corpus.
+ *
+ * Two accumulators may be merged.  Sums of doubles are then done in another
+ * order, so the stability coefficient may differ in its last digits.
+ */
+public class ChainStatistics {
+
+   private int chainCount;
+   private int linkCount;
+   // like the Corpus methods, each chain contributes the integer part of
+   // its value
+   private long linkToLinkDistanceSum;
+   private long linkLengthSum;
+   private double stabilityCoeffSum;
+   private int wordTokenCount;
+   private int annotationCount;
+   private HashMap<String, Integer> propertyFreq;
+   private HashMap<String, HashMap<String, Integer>> valueFreq;
+
+   public ChainStatistics() {
+      this.propertyFreq = new HashMap<>();
+      this.valueFreq = new HashMap<>();
+   }
+
+   /* Adds the chains of the collection, which has been built on the chunk
+    * (and on nothing else).
+    */
+   public void add(TextChunk chunk, ChainCollection chainColl) {
+      this.wordTokenCount += chunk.getWordTokenCount();
+      this.annotationCount += chunk.annotationCount();
+      for (Chain chain : chainColl.getChains()) {
+         this.chainCount++;
+         this.linkCount += chain.getAnnotations().size();
+         this.linkToLinkDistanceSum += (int)chain.getAverageLinkToLinkDistance();
+         this.linkLengthSum += (int)chain.getAverageLinkLength();
+         this.stabilityCoeffSum += chain.getStabilityCoeff();
+         for (Annotation annot : chain.getAnnotations()) {
+            for (String propName : annot.getPropertyList()) {
+               increment(this.propertyFreq, propName, 1);
+               HashMap<String, Integer> values = this.valueFreq.get(propName);
+               if (values == null) {
+                  values = new HashMap<>();
+                  this.valueFreq.put(propName, values);
+               }
+               increment(values, annot.getProperty(propName), 1);
+            }
+         }
+      }
+   }
+
+   public void merge(ChainStatistics other) {
+      this.chainCount += other.chainCount;
+      this.linkCount += other.linkCount;
+      this.linkToLinkDistanceSum += other.linkToLinkDistanceSum;
+      this.linkLengthSum += other.linkLengthSum;
+      this.stabilityCoeffSum += other.stabilityCoeffSum;
+      this.wordTokenCount += other.wordTokenCount;
+      this.annotationCount += other.annotationCount;
+      for (String propName : other.propertyFreq.keySet()) {
+         increment(this.propertyFreq, propName, other.propertyFreq.get(propName));
+      }
+      for (String propName : other.valueFreq.keySet()) {
+         HashMap<String, Integer> values = this.valueFreq.get(propName);
+         if (values == null) {
+            values = new HashMap<>();
+            this.valueFreq.put(propName, values);
+         }
+         for (String propValue : other.valueFreq.get(propName).keySet()) {
+            increment(values, propValue, other.valueFreq.get(propName).get(propValue));
+         }
+      }
+   }
+
+   private static void increment(HashMap<String, Integer> map, String key, int count) {
+      Integer value = map.get(key);
+      map.put(key, value == null ? count : value + count);
+   }
+
+   /* Parses the files one by one, and adds the chains of each text, before
+    * dropping it.  Chains never cross texts, so this gives the same chains as
+    * a ChainCollection on the whole corpus.  Texts without an id get the one
+    * they would have in the corpus, for the text id filter.
+    */
+   public static ChainStatistics compute(CorpusLoader loader, List<String> filenames, SplitByType splitBy,
+         ChainFilter filter) throws IOException,ParseException {
+      ChainStatistics stats = new ChainStatistics();
+      for (int i = 0; i < filenames.size(); i++) {
+         Corpus corpus = new Corpus();
+         Text text = loader.loadText(filenames.get(i), corpus.getTokenPool());
+         if (text.getId() == null) {
+            text.setTextId(String.format("t%02d", i));
+         }
+         corpus.addText(text);
+         stats.add(corpus, new ChainCollection(corpus, splitBy, filter));
+      }
+      return stats;
+   }
+
+   public int getChainCount() {
+      return this.chainCount;
+   }
+
+   public int getLinkCount() {
+      return this.linkCount;
+   }
+
+   public int getWordTokenCount() {
+      return this.wordTokenCount;
+   }
+
+   public double getAverageLinkToLinkDistance() {
+      return ((double)this.linkToLinkDistanceSum) / ((double)this.chainCount);
+   }
+
+   public double getAverageLinkLength() {
+      return ((double)this.linkLengthSum) / ((double)this.chainCount);
+   }
+
+   public double getStabilityCoeff() {
+      return this.stabilityCoeffSum / ((double)this.chainCount);
+   }
+
+   public double getAverageChainSize() {
+      return ((double)this.linkCount) / ((double)this.chainCount);
+   }
+
+   public double getChainDensity() {
+      return ((double)this.chainCount) / ((double)this.wordTokenCount);
+   }
+
+   public double getLinkDensity() {
+      return ((double)this.linkCount) / ((double)this.wordTokenCount);
+   }
+
+   public double getAnnotationDensity() {
+      return ((double)this.annotationCount) / ((double)this.wordTokenCount);
+   }
+
+   public ArrayList<String> getPropertyList() {
+      ArrayList<String> res = new ArrayList<>(this.propertyFreq.keySet());
+      Collections.sort(res);
+      return res;
+   }
+
+   public ArrayList<String> getPropertyValues(String propName) {
+      ArrayList<String> res = new ArrayList<>();
+      if (this.valueFreq.containsKey(propName)) res.addAll(this.valueFreq.get(propName).keySet());
+      Collections.sort(res);
+      return res;
+   }
+
+   public int getPropertyFreq(String propName) {
+      Integer freq = this.propertyFreq.get(propName);
+      return freq == null ? 0 : freq;
+   }
+
+   public int getPropertyFreq(String propName, String propValue) {
+      HashMap<String, Integer> values = this.valueFreq.get(propName);
+      if (values == null) return 0;
+      Integer freq = values.get(propValue);
+      return freq == null ? 0 : freq;
+   }
+
+   /* Prints the statistics of the files given on the command line, with the
+    * default filter: chains of at least 3 links, split by text.
+    */
+   public static void main(String[] args) throws IOException,ParseException {
+      ArrayList<String> filenames = new ArrayList<>();
+      int minSize = 3;
+      SplitByType splitBy = SplitByType.text;
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("--min-size") && i + 1 < args.length) {
+            minSize = Integer.valueOf(args[++i]);
+         } else if (args[i].equals("--split-by") && i + 1 < args.length) {
+            splitBy = SplitByType.valueOf(args[++i]);
+         } else {
+            filenames.add(args[i]);
+         }
+      }
+      ChainStatistics stats = ChainStatistics.compute(new CorpusLoader(1), filenames, splitBy, new ChainFilter(minSize));
+      System.out.println("ChainCount\t" + stats.getChainCount());
+      System.out.println("LinkCount\t" + stats.getLinkCount());
+      System.out.println("AvgChainSize\t" + stats.getAverageChainSize());
+      System.out.println("AvgL2LDist\t" + stats.getAverageLinkToLinkDistance());
+      System.out.println("AvgLinkLength\t" + stats.getAverageLinkLength());
+      System.out.println("ChainDensity\t" + stats.getChainDensity());
+      System.out.println("LinkDensity\t" + stats.getLinkDensity());
+      System.out.println("AnnotationDensity\t" + stats.getAnnotationDensity());
+      System.out.println("#words\t" + stats.getWordTokenCount());
+      for (String propName : stats.getPropertyList()) {
+         for (String propValue : stats.getPropertyValues(propName)) {
+            System.out.println(propName + ":" + propValue + "\t" + stats.getPropertyFreq(propName, propValue));
+         }
+      }
+   }
+
+}
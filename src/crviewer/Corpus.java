@@ -23,40 +23,143 @@
 package crviewer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
 public class Corpus extends TextChunk implements HasParagraphs, HasParts {
    private ArrayList<Text> texts;
+   private HashSet<String> textIds;
+   private int wordTokenOffset;
+   private TokenPool tokenPool;
+   // computed when first needed, and reset when the texts change
+   private List<Paragraph> paragraphs;
+   private List<Part> parts;
+   private int tokenCount;
+   private AnnotationIndex annotationIndex;
 
    public ArrayList<Text> getTexts() {
       return texts;
    }
 
-   public ArrayList<Paragraph> getParagraphs() {
-      ArrayList<Paragraph> pars = new ArrayList<>();
-      for (Text text : this.texts) {
-         for (Part part : text.getParts()) {
-            pars.addAll(part.getParagraphs());
+   /* A read-only list, kept until the texts change. */
+   public List<Paragraph> getParagraphs() {
+      if (this.paragraphs == null) {
+         ArrayList<Paragraph> pars = new ArrayList<>();
+         for (Text text : this.texts) {
+            pars.addAll(text.getParagraphs());
          }
+         this.paragraphs = Collections.unmodifiableList(pars);
       }
-      return pars;
+      return this.paragraphs;
    }
    
-   public ArrayList<Part> getParts() {
-      ArrayList<Part> parts = new ArrayList<>();
-      for (Text text : this.texts) {
-         parts.addAll(text.getParts());
+   /* A read-only list, kept until the texts change. */
+   public List<Part> getParts() {
+      if (this.parts == null) {
+         ArrayList<Part> parts = new ArrayList<>();
+         for (Text text : this.texts) {
+            parts.addAll(text.getParts());
+         }
+         this.parts = Collections.unmodifiableList(parts);
       }
-      return parts;
+      return this.parts;
+   }
+
+   /* Built when first needed, and rebuilt after the texts change. */
+   public AnnotationIndex getAnnotationIndex() {
+      if (this.annotationIndex == null) {
+         this.annotationIndex = new AnnotationIndex(this);
+      }
+      return this.annotationIndex;
+   }
+
+   private void resetAggregates() {
+      this.paragraphs = null;
+      this.parts = null;
+      this.tokenCount = -1;
+      this.annotationIndex = null;
    }
 
    public Corpus() {
       this.texts = new ArrayList<>();
+      this.textIds = new HashSet<>();
       this.annotations = new ArrayList<>();
+      this.wordTokenOffset = 0;
+      this.tokenPool = new TokenPool();
+      this.resetAggregates();
+   }
+
+   public TokenPool getTokenPool() {
+      return this.tokenPool;
    }
 
+   /* Texts are parsed independently, so their ids and annotation indexes are
+    * made corpus-wide here, in the order the texts are added.
+    */
    public void addText(Text text) {
+      if (text.getId() == null) {
+         text.setTextId(String.format("t%02d", this.texts.size()));
+      }
+      if (this.textIds.contains(text.getId())) {
+         throw new RuntimeException("The text id: `"+text.getId()+"' is already used.");
+      }
+      this.textIds.add(text.getId());
+      for (Annotation annot : text.getAnnotations()) {
+         annot.setIndex(annot.getIndex() + this.wordTokenOffset);
+      }
+      this.wordTokenOffset += text.getWordTokenCount();
       texts.add(text);
       this.annotations.addAll(text.getAnnotations());
+      this.resetAggregates();
+   }
+
+   /* Replaces a text (for instance after its file has been edited) by a new
+    * one, not added to a corpus yet.  The annotation indexes of the following
+    * texts are shifted by the difference in number of words.
+    */
+   public void replaceText(Text oldText, Text newText) {
+      int pos = this.texts.indexOf(oldText);
+      if (pos == -1) {
+         throw new IllegalArgumentException("The text: `"+oldText.getId()+"' is not in the corpus.");
+      }
+      if (newText.getId() == null) {
+         newText.setTextId(oldText.getId());
+      }
+      if (!newText.getId().equals(oldText.getId()) && this.textIds.contains(newText.getId())) {
+         throw new RuntimeException("The text id: `"+newText.getId()+"' is already used.");
+      }
+      this.textIds.remove(oldText.getId());
+      this.textIds.add(newText.getId());
+      int offset = 0;
+      for (int i = 0; i < pos; i++) {
+         offset += this.texts.get(i).getWordTokenCount();
+      }
+      for (Annotation annot : newText.getAnnotations()) {
+         annot.setIndex(annot.getIndex() + offset);
+      }
+      int delta = newText.getWordTokenCount() - oldText.getWordTokenCount();
+      for (int i = pos + 1; i < this.texts.size(); i++) {
+         for (Annotation annot : this.texts.get(i).getAnnotations()) {
+            annot.setIndex(annot.getIndex() + delta);
+         }
+      }
+      this.wordTokenOffset += delta;
+      this.texts.set(pos, newText);
+      this.annotations = new ArrayList<>();
+      for (Text text : this.texts) {
+         this.annotations.addAll(text.getAnnotations());
+      }
+      this.resetPropertyList();
+      this.resetAggregates();
+   }
+
+   public Text getTextByFilename(String filename) {
+      for (Text text : this.texts) {
+         if (text.getFilename().equals(filename)) return text;
+      }
+      return null;
    }
 
    public String getId() {
@@ -64,27 +167,19 @@ public class Corpus extends TextChunk implements HasParagraphs, HasParts {
    }
 
    public int getTokenCount() {
-      int sum = 0;
-      for (Text text : this.texts) {
-         for (Part part : text.getParts()) {
-            for (Paragraph par : part.getParagraphs()) {
-               sum += par.getTokenCount();
-            }
+      if (this.tokenCount == -1) {
+         int sum = 0;
+         for (Text text : this.texts) {
+            sum += text.getTokenCount();
          }
+         this.tokenCount = sum;
       }
-      return sum;
+      return this.tokenCount;
    }
 
+   /* The offset of the next text is the number of words of the corpus. */
    public int getWordTokenCount() {
-      int sum = 0;
-      for (Text text : this.texts) {
-         for (Part part : text.getParts()) {
-            for (Paragraph par : part.getParagraphs()) {
-               sum += par.getWordTokenCount();
-            }
-         }
-      }
-      return sum;
+      return this.wordTokenOffset;
    }
    
    public int getParagraphCount() {
@@ -98,50 +193,8 @@ public class Corpus extends TextChunk implements HasParagraphs, HasParts {
 
 
    @Override
-   public double getAverageLinkToLinkDistance(ChainCollection chainColl) {
-      int sum = 0;
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         sum += chain.getAverageLinkToLinkDistance();
-         count++;
-      }
-      return ((double)sum) / ((double)count);
-   }
-   
-   @Override
-   public double getStabilityCoeff(ChainCollection chainColl) {
-      double sum = 0;
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         sum += chain.getStabilityCoeff();
-         count++;
-      }
-      return ((double)sum) / ((double)count);
-   }
-   
-   @Override
-   public double getAverageLinkLength(ChainCollection chainColl) {
-      int sum = 0;
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         sum += chain.getAverageLinkLength();
-         count++;
-      }
-      return ((double)sum) / ((double)count);
-   }
-   
-   @Override
-   public int getChainCount(ChainCollection chainColl) {
-      return chainColl.getChains().length;
-   }
-
-   @Override
-   public int getLinkCount(ChainCollection chainColl) {
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         count += chain.getAnnotations().size();
-      }
-      return count;
+   public List<Chain> getChains(ChainCollection chainColl) {
+      return Arrays.asList(chainColl.getChains());
    }
 
 }
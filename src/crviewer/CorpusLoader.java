@@ -0,0 +1,158 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Parses a list of files on a bounded pool of worker threads, and adds the
+ * texts to the corpus in the order of the list.  Files larger than
+ * LARGE_FILE_SIZE have their paragraphs parsed in parallel too.
+ */
+public class CorpusLoader {
+
+   private static final long LARGE_FILE_SIZE = 8 * 1024 * 1024;
+   private int threadCount;
+   private Charset charset;
+   private CorpusSnapshot snapshot;
+
+   public CorpusLoader() {
+      this(Runtime.getRuntime().availableProcessors());
+   }
+
+   public CorpusLoader(int threadCount) {
+      this(threadCount, Charset.defaultCharset());
+   }
+
+   public CorpusLoader(int threadCount, Charset charset) {
+      this.threadCount = Math.max(1, threadCount);
+      this.charset = charset;
+      this.snapshot = null;
+   }
+
+   /* If set, unchanged files are loaded from their snapshot in this directory
+    * instead of being parsed, and snapshots are written for the other ones.
+    */
+   public void setSnapshotDirectory(File directory) {
+      this.snapshot = directory == null ? null : new CorpusSnapshot(directory);
+   }
+
+   public Corpus load(List<String> filenames) throws IOException,ParseException {
+      Corpus corpus = new Corpus();
+      ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.threadCount, Math.max(1, filenames.size())));
+      try {
+         ArrayList<Future<Text>> futures = new ArrayList<>();
+         for (String filename : filenames) {
+            futures.add(pool.submit(new Callable<Text>() {
+               @Override
+               public Text call() throws IOException,ParseException {
+                  return loadText(filename, corpus.getTokenPool());
+               }
+            }));
+         }
+         for (Future<Text> future : futures) {
+            corpus.addText(getText(future));
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+      // built now rather than on the first filtering
+      corpus.getAnnotationIndex();
+      printMemoryReport(corpus);
+      return corpus;
+   }
+
+   /* Loads one text, from its snapshot if it is up to date.  The text is not
+    * added to a corpus.  With snapshots, the file is read only once, and the
+    * bytes hashed are the bytes parsed: the file may be changing while it is
+    * loaded (in watch mode), and a snapshot must not store a text under the
+    * hash of another content.
+    */
+   public Text loadText(String filename, TokenPool tokenPool) throws IOException,ParseException {
+      String contentHash = null;
+      byte[] content = null;
+      if (this.snapshot != null) {
+         content = Files.readAllBytes(new File(filename).toPath());
+         contentHash = CorpusSnapshot.getContentHash(content, this.charset);
+         Text text = this.snapshot.read(filename, contentHash, tokenPool);
+         if (text != null) {
+            System.out.println("Loading snapshot of file: "+filename);
+            return text;
+         }
+      }
+      long size = content == null ? new File(filename).length() : content.length;
+      boolean split = size >= LARGE_FILE_SIZE;
+      Text text = new FileParser(filename, content, split, this.charset, tokenPool).getText();
+      if (this.snapshot != null) {
+         try {
+            this.snapshot.write(text, contentHash);
+         } catch (IOException e) {
+            System.out.println("Can't write the snapshot of file: "+filename+" ("+e.getMessage()+")");
+         }
+      }
+      return text;
+   }
+
+   /* The heap is only measured (after a garbage collection) if the
+    * crviewer.memoryreport system property is set.
+    */
+   private static void printMemoryReport(Corpus corpus) {
+      System.out.printf("Corpus loaded: %d texts, %d tokens, %d word tokens, %d distinct words.\n",
+            corpus.getTexts().size(), corpus.getTokenCount(), corpus.getWordTokenCount(),
+            corpus.getTokenPool().getWordCount());
+      if (System.getProperty("crviewer.memoryreport") != null) {
+         Runtime runtime = Runtime.getRuntime();
+         System.gc();
+         long used = runtime.totalMemory() - runtime.freeMemory();
+         System.out.printf("Heap used: %.1f MB.\n", used / (1024.0 * 1024.0));
+      }
+   }
+
+   private static Text getText(Future<Text> future) throws IOException,ParseException {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("interrupted while loading the corpus", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) throw (IOException)cause;
+         if (cause instanceof ParseException) throw (ParseException)cause;
+         if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+         if (cause instanceof Error) throw (Error)cause;
+         throw new IOException(cause);
+      }
+   }
+
+}
@@ -0,0 +1,289 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/* Binary snapshot of a parsed text, so that an unchanged file doesn't have to
+ * be parsed again.  There is one snapshot per source file, in the snapshot
+ * directory; it records the hash of the content of the file (and the charset
+ * it was parsed with), and is only used if they still match.
+ *
+ * Snapshots are written before the text is added to a corpus, so annotation
+ * indexes are relative to the start of the text.  Words are stored in a table
+ * local to the snapshot, and mapped to the token pool of the corpus when the
+ * snapshot is read.  The header (with the hash) is checked first, and only
+ * then is the rest of the snapshot read at once into a heap buffer.  Files
+ * are never memory-mapped: a mapping is only released by the garbage
+ * collector, and on Windows a mapped file can be neither replaced by a new
+ * snapshot nor, for a source file, saved by an editor.
+ */
+public class CorpusSnapshot {
+
+   private static final int MAGIC = 0x43525653; // "CRVS"
+   private static final int VERSION = 2;
+   private File directory;
+
+   public CorpusSnapshot(File directory) {
+      this.directory = directory;
+   }
+
+   private static String toHex(byte[] bytes) {
+      StringBuilder res = new StringBuilder();
+      for (byte b : bytes) res.append(String.format("%02x", b));
+      return res.toString();
+   }
+
+   private static MessageDigest getDigest() {
+      try {
+         return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /* Returns the hash of the content of a file and of the charset name. */
+   public static String getContentHash(byte[] content, Charset charset) {
+      MessageDigest digest = getDigest();
+      digest.update(content);
+      digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+      return toHex(digest.digest());
+   }
+
+   private File getSnapshotFile(String filename) {
+      String path = new File(filename).getAbsolutePath();
+      String key = toHex(getDigest().digest(path.getBytes(StandardCharsets.UTF_8)));
+      return new File(this.directory, key + ".crvs");
+   }
+
+   /* Returns the text of the snapshot of the file, or null if there is no
+    * valid snapshot for this content.
+    */
+   public Text read(String filename, String contentHash, TokenPool pool) {
+      File file = this.getSnapshotFile(filename);
+      if (!file.isFile()) return null;
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+         if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+         int hashSize = in.readInt();
+         if (hashSize < 0 || hashSize > file.length()) return null;
+         byte[] hash = new byte[hashSize];
+         in.readFully(hash);
+         if (!new String(hash, StandardCharsets.UTF_8).equals(contentHash)) return null;
+         int headerSize = 4 + 4 + 4 + hash.length;
+         byte[] bytes = new byte[(int)(file.length() - headerSize)];
+         in.readFully(bytes);
+         return readText(ByteBuffer.wrap(bytes), filename, pool);
+      } catch (IOException | RuntimeException e) {
+         System.out.println("Ignoring snapshot `"+file+"': "+e);
+         return null;
+      }
+   }
+
+   public void write(Text text, String contentHash) throws IOException {
+      if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+         throw new IOException("can't create the snapshot directory `"+this.directory+"'");
+      }
+      File file = this.getSnapshotFile(text.getFilename());
+      File tmp = File.createTempFile("snapshot", ".tmp", this.directory);
+      try {
+         try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, contentHash);
+            writeText(out, text);
+         }
+         Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+         tmp.delete();
+      }
+   }
+
+   private static void writeString(DataOutputStream out, String s) throws IOException {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(ByteBuffer buf) {
+      byte[] bytes = new byte[buf.getInt()];
+      buf.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   /* Gives an id to each distinct string, in order of first use. */
+   private static class StringTable {
+      private HashMap<String, Integer> ids = new HashMap<>();
+      private ArrayList<String> strings = new ArrayList<>();
+
+      public int getId(String s) {
+         Integer id = this.ids.get(s);
+         if (id == null) {
+            id = this.strings.size();
+            this.ids.put(s, id);
+            this.strings.add(s);
+         }
+         return id;
+      }
+
+      public void write(DataOutputStream out) throws IOException {
+         out.writeInt(this.strings.size());
+         for (String s : this.strings) writeString(out, s);
+      }
+   }
+
+   private static void writeText(DataOutputStream out, Text text) throws IOException {
+      // words and the other strings (ids, types, refnames, properties) have
+      // their own tables, written before the body of the text
+      HashMap<Integer, Integer> wordIds = new HashMap<>();
+      ArrayList<String> words = new ArrayList<>();
+      StringTable strings = new StringTable();
+      ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+      DataOutputStream body = new DataOutputStream(bodyBytes);
+      body.writeInt(strings.getId(text.getId()));
+      body.writeInt(text.getParts().size());
+      for (Part part : text.getParts()) {
+         body.writeInt(part.getPartId());
+         body.writeInt(strings.getId(part.getType()));
+         body.writeInt(part.getParagraphs().size());
+         for (Paragraph par : part.getParagraphs()) {
+            body.writeInt(par.getParId());
+            body.writeInt(par.getTokenCount());
+            for (int i = 0; i < par.getTokenCount(); i++) {
+               body.writeByte(par.getTokenKind(i));
+            }
+            for (int i = 0; i < par.getTokenCount(); i++) {
+               int id = par.getTokenId(i);
+               if (par.isWordToken(i)) {
+                  Integer wordId = wordIds.get(id);
+                  if (wordId == null) {
+                     wordId = words.size();
+                     wordIds.put(id, wordId);
+                     words.add(par.getToken(i).toString());
+                  }
+                  id = wordId;
+               }
+               body.writeInt(id);
+            }
+            body.writeInt(par.getAnnotations().size());
+            for (Annotation annot : par.getAnnotations()) {
+               body.writeInt(strings.getId(annot.getRefname()));
+               body.writeInt(annot.getIndex());
+               body.writeInt(annot.getStart());
+               body.writeInt(annot.getEnd());
+               body.writeInt(annot.getHeadIndex());
+               PropertySchema schema = annot.getPropertySchema();
+               body.writeInt(annot.getPropertyCount());
+               for (int k = 0; k < annot.getPropertyCount(); k++) {
+                  body.writeInt(strings.getId(schema.getKey(annot.getPropertyKeyId(k))));
+                  body.writeInt(strings.getId(schema.getValue(annot.getPropertyValueId(k))));
+               }
+               // as letters, which don't depend on the flag order
+               body.writeInt(strings.getId(ExpansionFlags.toLetters(annot.getExpansionFlags())));
+            }
+         }
+      }
+      body.flush();
+      out.writeInt(words.size());
+      for (String word : words) writeString(out, word);
+      strings.write(out);
+      bodyBytes.writeTo(out);
+   }
+
+   private static Text readText(ByteBuffer buf, String filename, TokenPool pool) {
+      int[] poolIds = new int[buf.getInt()];
+      for (int i = 0; i < poolIds.length; i++) {
+         poolIds[i] = pool.getWordToken(readString(buf)).getId();
+      }
+      String[] strings = new String[buf.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+         strings[i] = readString(buf);
+      }
+      // property ids in the schema of the pool, for each string of the table
+      // used as a key or value
+      PropertySchema schema = pool.getPropertySchema();
+      int[] keyIds = new int[strings.length];
+      int[] valueIds = new int[strings.length];
+      Arrays.fill(keyIds, -1);
+      Arrays.fill(valueIds, -1);
+      Text text = new Text(filename);
+      text.setTextId(strings[buf.getInt()]);
+      int partCount = buf.getInt();
+      for (int p = 0; p < partCount; p++) {
+         Part part = new Part(buf.getInt());
+         part.setType(strings[buf.getInt()]);
+         int parCount = buf.getInt();
+         for (int q = 0; q < parCount; q++) {
+            Paragraph par = new Paragraph(buf.getInt(), pool);
+            byte[] kinds = new byte[buf.getInt()];
+            buf.get(kinds);
+            int[] ids = new int[kinds.length];
+            buf.asIntBuffer().get(ids);
+            buf.position(buf.position() + 4 * ids.length);
+            for (int i = 0; i < ids.length; i++) {
+               if (kinds[i] == Paragraph.WORD) ids[i] = poolIds[ids[i]];
+            }
+            par.setTokens(kinds, ids);
+            int annotCount = buf.getInt();
+            for (int a = 0; a < annotCount; a++) {
+               Annotation annot = new Annotation(strings[buf.getInt()], buf.getInt(), par);
+               annot.setStart(buf.getInt());
+               annot.setEnd(buf.getInt());
+               annot.setHeadIndex(buf.getInt());
+               int propCount = buf.getInt();
+               for (int k = 0; k < propCount; k++) {
+                  int key = buf.getInt();
+                  int value = buf.getInt();
+                  if (keyIds[key] == -1) keyIds[key] = schema.addKey(strings[key]);
+                  if (valueIds[value] == -1) valueIds[value] = schema.addValue(strings[value]);
+                  annot.setProperty(keyIds[key], valueIds[value]);
+               }
+               annot.setExpansionFlags(ExpansionFlags.parse(strings[buf.getInt()]));
+               par.getAnnotations().add(annot);
+            }
+            part.addParagraph(par);
+         }
+         text.addPart(part);
+      }
+      return text;
+   }
+
+}
@@ -0,0 +1,134 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/* Watches the files of a corpus, and parses again those that are modified, on
+ * its own (daemon) thread.  The new texts are given to the listener, which is
+ * responsible for swapping them into the corpus.
+ */
+public class CorpusWatcher implements Runnable {
+
+   public interface Listener {
+      public void textReloaded(String filename, Text text);
+   }
+
+   // editors often write a file in several steps: wait for the writes to
+   // settle before parsing it
+   private static final long SETTLE_DELAY = 300;
+   private CorpusLoader loader;
+   private TokenPool tokenPool;
+   private Listener listener;
+   private WatchService service;
+   private HashMap<Path, String> filenames;
+   private Thread thread;
+
+   public CorpusWatcher(CorpusLoader loader, TokenPool tokenPool, List<String> filenames, Listener listener)
+         throws IOException {
+      this.loader = loader;
+      this.tokenPool = tokenPool;
+      this.listener = listener;
+      this.service = FileSystems.getDefault().newWatchService();
+      this.filenames = new HashMap<>();
+      Set<Path> directories = new HashSet<>();
+      for (String filename : filenames) {
+         Path path = Paths.get(filename).toAbsolutePath().normalize();
+         this.filenames.put(path, filename);
+         directories.add(path.getParent());
+      }
+      for (Path directory : directories) {
+         directory.register(this.service, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+      }
+   }
+
+   public void start() {
+      this.thread = new Thread(this, "corpus watcher");
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }
+
+   public void stop() {
+      try {
+         this.service.close();
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   private void collectEvents(WatchKey key, Set<String> changed) {
+      Path directory = (Path)key.watchable();
+      for (WatchEvent<?> event : key.pollEvents()) {
+         if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            changed.addAll(this.filenames.values());
+            continue;
+         }
+         Path path = directory.resolve((Path)event.context()).normalize();
+         String filename = this.filenames.get(path);
+         if (filename != null) changed.add(filename);
+      }
+      key.reset();
+   }
+
+   @Override
+   public void run() {
+      try {
+         while (true) {
+            Set<String> changed = new LinkedHashSet<>();
+            this.collectEvents(this.service.take(), changed);
+            WatchKey key;
+            while ((key = this.service.poll(SETTLE_DELAY, TimeUnit.MILLISECONDS)) != null) {
+               this.collectEvents(key, changed);
+            }
+            for (String filename : changed) {
+               try {
+                  System.out.println("File changed: "+filename);
+                  this.listener.textReloaded(filename, this.loader.loadText(filename, this.tokenPool));
+               } catch (IOException | ParseException | RuntimeException e) {
+                  // keep the previous version of the text
+                  System.out.println("Can't reload file: "+filename+" ("+e.getMessage()+")");
+               }
+            }
+         }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+         // stopped
+      }
+   }
+
+}
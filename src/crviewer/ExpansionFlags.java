@@ -0,0 +1,117 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.util.HashMap;
+
+/* The value of the expansion_ property is a set of letters, each standing
+ * for a kind of expansion of the mention (a: adjective, v: verb...).  An
+ * annotation stores them as a bitmask, and shows them as one yes/no property
+ * per kind: expansion_-adj, expansion_-verb...  The letters and kinds may be
+ * changed with setFlags(), before the files are parsed.
+ */
+public class ExpansionFlags {
+   public static final String PROPERTY = "expansion_";
+   public static final int MAX_FLAGS = 32;
+
+   private static class Mapping {
+      private String letters;
+      private String[] keys;
+      private HashMap<String, Integer> flags;
+
+      public Mapping(String letters, String[] names) {
+         if (letters.length() != names.length) {
+            throw new IllegalArgumentException("There must be one name for each expansion letter.");
+         }
+         if (letters.length() > MAX_FLAGS) {
+            throw new IllegalArgumentException("There can't be more than " + MAX_FLAGS + " expansion letters.");
+         }
+         this.letters = letters;
+         this.keys = new String[names.length];
+         this.flags = new HashMap<>();
+         for (int i = 0; i < names.length; i++) {
+            if (letters.indexOf(letters.charAt(i)) != i) {
+               throw new IllegalArgumentException("The expansion letter: `" + letters.charAt(i) + "' is used twice.");
+            }
+            this.keys[i] = PROPERTY + "-" + names[i];
+            this.flags.put(this.keys[i], i);
+         }
+      }
+   }
+
+   private static volatile Mapping mapping = new Mapping("avprns",
+         new String[] { "adj", "verb", "apposition", "relative", "noun", "sub" });
+
+   public static void setFlags(String letters, String[] names) {
+      ExpansionFlags.mapping = new Mapping(letters, names);
+   }
+
+   public static int getFlagCount() {
+      return ExpansionFlags.mapping.keys.length;
+   }
+
+   /* Returns the property key of the flag, for instance expansion_-adj. */
+   public static String getKey(int flag) {
+      return ExpansionFlags.mapping.keys[flag];
+   }
+
+   /* Returns the flag of a property key, or -1 if it is not one. */
+   public static int getFlagOfKey(String key) {
+      Integer flag = ExpansionFlags.mapping.flags.get(key);
+      return flag == null ? -1 : flag;
+   }
+
+   /* Returns the bitmask of the letters of the value.  Unknown letters are
+    * ignored (see getUnknownLetters()).
+    */
+   public static int parse(String value) {
+      String letters = ExpansionFlags.mapping.letters;
+      int mask = 0;
+      for (int i = 0; i < value.length(); i++) {
+         int flag = letters.indexOf(value.charAt(i));
+         if (flag != -1) mask |= 1 << flag;
+      }
+      return mask;
+   }
+
+   public static String getUnknownLetters(String value) {
+      String letters = ExpansionFlags.mapping.letters;
+      StringBuilder res = new StringBuilder();
+      for (int i = 0; i < value.length(); i++) {
+         if (letters.indexOf(value.charAt(i)) == -1) res.append(value.charAt(i));
+      }
+      return res.toString();
+   }
+
+   /* Returns the letters of the bitmask, the reverse of parse(). */
+   public static String toLetters(int mask) {
+      String letters = ExpansionFlags.mapping.letters;
+      StringBuilder res = new StringBuilder();
+      for (int i = 0; i < letters.length(); i++) {
+         if ((mask & (1 << i)) != 0) res.append(letters.charAt(i));
+      }
+      return res.toString();
+   }
+
+}
@@ -23,124 +23,303 @@
 package crviewer;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class FileParser {
 
+   /* Below this number of paragraphs, a chunk is parsed on the current thread
+    * instead of being split further (see splitParagraphs).
+    */
+   private static final int PARALLEL_THRESHOLD = 128;
+
    private ArrayList<String> additionnal_tokens;
+   private TokenTrie additionnalTokenTrie;
+   private TokenPool pool;
    private Text text;
+   private int wordTokenCount;
+   private int lineCounter;
+   private boolean splitParagraphs;
+   private ArrayList<ParagraphParser> pendingParagraphs;
+   private ArrayList<Part> pendingParts;
 
-   private String getWord(Line line) {
+   private static String getWord(Line line) {
       return getWord(line, false);
    }
 
-   private String getWord(Line line, boolean acceptHyphen) {
+   private static String getWord(Line line, boolean acceptHyphen) {
       return getWord(line, acceptHyphen, false);
    }
    
-   private String getWord(Line line, boolean acceptHyphen, boolean acceptUnderscore) {
+   private static String getWord(Line line, boolean acceptHyphen, boolean acceptUnderscore) {
       line.eatWhite();
+      String text = line.text;
+      int length = text.length();
       int start = line.pos;
-      while (line.nextChar() != 0 &&
-            (Character.isLetterOrDigit(line.nextChar())
-                  || (acceptHyphen && line.nextChar() == '-')
-                  || (acceptUnderscore && line.nextChar() == '_'))) line.pos++;
-      if (line.nextChar() == '\'') line.pos++;
-      return line.text.substring(start, line.pos);
+      int pos = start;
+      while (pos < length) {
+         char c = text.charAt(pos);
+         if (!(Character.isLetterOrDigit(c)
+                  || (acceptHyphen && c == '-')
+                  || (acceptUnderscore && c == '_'))) break;
+         pos++;
+      }
+      if (pos < length && text.charAt(pos) == '\'') pos++;
+      line.pos = pos;
+      return text.substring(start, pos);
    }
    
-   private String getQuote(Line line) throws ParseException {
+   private static String getQuote(Line line) throws ParseException {
       line.eatWhite();
-      if (line.nextChar() != '"') throw new ParseException("can't parse line (no quote): " + line, Line.getLineCounter());
+      if (line.nextChar() != '"') throw new ParseException("can't parse line (no quote): " + line, line.getLineNumber());
       line.pos++;
       int start = line.pos;
       while (line.nextChar() != 0 && line.nextChar() != '"') line.pos++;
-      if (line.nextChar() == 0) throw new ParseException("can't parse line (no quote): " + line, Line.getLineCounter());
+      if (line.nextChar() == 0) throw new ParseException("can't parse line (no quote): " + line, line.getLineNumber());
       return line.text.substring(start, line.pos++);
    }
       
-   private void eatEqualOrDie(Line line) throws ParseException {
+   private static void eatEqualOrDie(Line line) throws ParseException {
       line.eatWhite();
       if (line.nextChar() != '=') {
-         throw new ParseException("can't parse line (no equal): " + line, Line.getLineCounter());
+         throw new ParseException("can't parse line (no equal): " + line, line.getLineNumber());
       }
       line.pos++;
    }
 
-   private void eatColonOrDie(Line line) throws ParseException {
+   private static void eatColonOrDie(Line line) throws ParseException {
       line.eatWhite();
       if (line.nextChar() != ':') {
-         throw new ParseException("can't parse line (no colon): " + line, Line.getLineCounter());
+         throw new ParseException("can't parse line (no colon): " + line, line.getLineNumber());
       }
       line.pos++;
    }
 
-   private String getRestOfLine(Line line) {
+   private static String getRestOfLine(Line line) {
       line.eatWhite();
       return line.text.substring(line.pos);
    }
 
-   private void parseParagraph(Line line, ArrayList<Token> tokens, ArrayList<Annotation> annotations)
-         throws ParseException {
-      while (line.nextChar() != 0) {
-         for (String token: this.additionnal_tokens) {
-            if (line.nextis(token)) {
-               tokens.add(new WordToken(token));
+   /* Parses the tokens and annotations of one paragraph. Annotation indexes
+    * are first counted from the start of the paragraph, and made relative to
+    * the start of the file by shiftIndexes(), so that paragraphs can be parsed
+    * in any order.
+    */
+   private static class ParagraphParser {
+      private Line line;
+      private Paragraph par;
+      private Part part;
+      private TokenTrie additionnalTokens;
+      private TokenPool pool;
+
+      public ParagraphParser(Line line, Paragraph par, Part part, TokenTrie additionnalTokens, TokenPool pool) {
+         this.line = line;
+         this.par = par;
+         this.part = part;
+         this.additionnalTokens = additionnalTokens;
+         this.pool = pool;
+      }
+
+      public void parse() throws ParseException {
+         parseParagraph(this.par.getAnnotations());
+         this.par.trimToSize();
+         this.line = null;
+      }
+
+      public int getWordTokenCount() {
+         return this.par.getWordTokenCount();
+      }
+
+      public void shiftIndexes(int offset) {
+         for (Annotation annot : this.par.getAnnotations()) {
+            annot.setIndex(annot.getIndex() + offset);
+         }
+      }
+
+      /* Annotations may be nested at any depth: the open ones are kept on a
+       * stack rather than parsed recursively.  A closing brace with no open
+       * annotation ends the paragraph, and the annotations still open at the
+       * end of the line end with it.
+       */
+      private void parseParagraph(ArrayList<Annotation> annotations)
+            throws ParseException {
+         Line line = this.line;
+         Paragraph par = this.par;
+         ArrayList<Annotation> openAnnotations = new ArrayList<>();
+         while (line.nextChar() != 0) {
+            // same as trying each additional token in turn, in the order
+            // of declaration
+            int minIndex = 0;
+            int index;
+            while ((index = this.additionnalTokens.match(line.text, line.pos, minIndex)) != -1) {
+               String token = this.additionnalTokens.getToken(index);
+               par.addWordToken(this.pool.getWordToken(token));
                line.pos += token.length();
+               minIndex = index + 1;
+            }
+            if (line.nextChar() == '{') {
+               line.pos++;
+               openAnnotations.add(getAnnotation(annotations));
+            } else if (line.nextChar() == '}') {
+               line.pos++;
+               if (openAnnotations.isEmpty()) return;
+               openAnnotations.remove(openAnnotations.size()-1).setEnd(par.getTokenCount()-1);
+            } else if (Character.isLetterOrDigit(line.nextChar())) {
+               par.addWordToken(this.pool.getWordToken(getWord(line)));
+            } else if (line.nextChar() == ' ') {
+               par.addSpaceToken();
+               line.pos++;
+               line.eatWhite();
+            } else {
+               par.addPunctToken(line.nextChar());
+               line.pos++;
             }
          }
-         if (line.nextChar() == '{') {
-            line.pos++;
-            getAnnotation(line, tokens, annotations);
-         } else if (line.nextChar() == '}') {
-            line.pos++;
-            return;
-         } else if (Character.isLetterOrDigit(line.nextChar())) {
-            tokens.add(new WordToken(getWord(line)));
-         } else if (line.nextChar() == ' ') {
-            tokens.add(new SpaceToken());
-            line.pos++;
-            line.eatWhite();
+         for (int i = openAnnotations.size()-1; i >= 0; i--) {
+            openAnnotations.get(i).setEnd(par.getTokenCount()-1);
+         }
+      }
+
+      /* Reads the refname and properties of an annotation, after its opening
+       * brace.  The annotation ends when its closing brace is found.
+       */
+      private Annotation getAnnotation(ArrayList<Annotation> annotations)
+            throws ParseException {
+         Line line = this.line;
+         Annotation annot = new Annotation(getWord(line, false, true), this.par.getWordTokenCount(), this.par);
+         annotations.add(annot);
+         annot.setStart(this.par.getTokenCount());
+         if (line.nextChar() == ':') {
+            do {
+               line.pos++;
+               String key = getWord(line, false, true);
+               if (key.equals("")) throw new ParseException("can't parse line (property): " + line, line.getLineNumber());
+               eatEqualOrDie(line);
+               String val = getWord(line);
+               if (val.equals("")) val = getQuote(line);
+               if (key.equals(ExpansionFlags.PROPERTY)) {
+                  String unknown = ExpansionFlags.getUnknownLetters(val);
+                  if (!unknown.equals("")) {
+                     System.out.println("Ignoring unknown expansion letters: `" + unknown + "' on line " + line.getLineNumber());
+                  }
+               }
+               annot.addProperty(key, val);
+            } while (line.nextChar() == ',');
+         }
+         line.pos++;
+         return annot;
+      }
+   }
+
+   /* Parses the paragraphs from..to-1 of the list, splitting the range in two
+    * as long as it is larger than PARALLEL_THRESHOLD.
+    */
+   private static class ParseTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      private List<ParagraphParser> parsers;
+      private int from;
+      private int to;
+
+      public ParseTask(List<ParagraphParser> parsers, int from, int to) {
+         this.parsers = parsers;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if (this.to - this.from <= PARALLEL_THRESHOLD) {
+            for (int i = this.from; i < this.to; i++) {
+               try {
+                  this.parsers.get(i).parse();
+               } catch (ParseException e) {
+                  throw new RuntimeException(e);
+               }
+            }
          } else {
-            tokens.add(new PunctToken(String.valueOf(line.nextChar())));
-            line.pos++;
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new ParseTask(this.parsers, this.from, middle),
+                  new ParseTask(this.parsers, middle, this.to));
          }
       }
    }
 
-   private void getAnnotation(Line line, ArrayList<Token> tokens, ArrayList<Annotation> annotations)
-         throws ParseException {
-      Annotation annot = new Annotation(getWord(line, false, true), Token.getTokenCount(), tokens);
-      annotations.add(annot);
-      annot.setStart(tokens.size());
-      if (line.nextChar() == ':') {
-         do {
-            line.pos++;
-            String key = getWord(line, false, true);
-            if (key.equals("")) throw new ParseException("can't parse line (property): " + line, Line.getLineCounter());
-            eatEqualOrDie(line);
-            String val = getWord(line);
-            if (val.equals("")) val = getQuote(line);
-            annot.addProperty(key, val);
-         } while (line.nextChar() == ',');
+   private void parseParagraphs(ArrayList<ParagraphParser> parsers) throws ParseException {
+      try {
+         ForkJoinPool.commonPool().invoke(new ParseTask(parsers, 0, parsers.size()));
+      } catch (RuntimeException e) {
+         // fork/join may rethrow a copy of the exception, so look for the
+         // ParseException in the whole chain of causes
+         for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ParseException) throw (ParseException)cause;
+         }
+         throw e;
+      }
+   }
+
+   private void addParagraph(ParagraphParser parser) {
+      parser.shiftIndexes(this.wordTokenCount);
+      this.wordTokenCount += parser.getWordTokenCount();
+      parser.part.addParagraph(parser.par);
+   }
+
+   private void addPart(Part part) {
+      if (this.splitParagraphs) {
+         this.pendingParts.add(part);
+      } else {
+         this.text.addPart(part);
       }
-      line.pos++;
-      parseParagraph(line, tokens, annotations);
-      annot.setEnd(tokens.size()-1);
    }
 
    public FileParser(String filename) throws IOException,ParseException {
+      this(filename, false);
+   }
+
+   public FileParser(String filename, boolean splitParagraphs) throws IOException,ParseException {
+      this(filename, splitParagraphs, Charset.defaultCharset());
+   }
+
+   public FileParser(String filename, boolean splitParagraphs, Charset charset) throws IOException,ParseException {
+      this(filename, splitParagraphs, charset, new TokenPool());
+   }
+
+   /* If splitParagraphs is true, the paragraphs of the file are parsed in
+    * parallel, on the common fork/join pool, once the whole file has been
+    * read. The resulting text is the same as with a sequential parse.
+    * Word tokens are taken from the pool, which is usually the one of the
+    * corpus the text will be added to.
+    */
+   public FileParser(String filename, boolean splitParagraphs, Charset charset, TokenPool pool) throws IOException,ParseException {
+      this(filename, null, splitParagraphs, charset, pool);
+   }
+
+   /* Same as above, but if content is not null, it is parsed instead of the
+    * content of the file (which must then be its content: the file name is
+    * still used for the text id).
+    */
+   public FileParser(String filename, byte[] content, boolean splitParagraphs, Charset charset, TokenPool pool) throws IOException,ParseException {
       this.additionnal_tokens = new ArrayList<>();
+      this.additionnalTokenTrie = null;
+      this.pool = pool;
       this.text = new Text(filename);
       File file = new File(filename);
       text.setTextId(file.getName());
-      Line.resetLineCounter();
+      this.wordTokenCount = 0;
+      this.lineCounter = 0;
+      this.splitParagraphs = splitParagraphs;
+      this.pendingParagraphs = new ArrayList<>();
+      this.pendingParts = new ArrayList<>();
       int partCounter = 1;
       int parCounter = 1;
       Part part = new Part(partCounter);
+      boolean partIsEmpty = true;
       System.out.println("Parsing file: "+filename);
-      BufferedReader f = new BufferedReader(new FileReader(filename));
+      ByteLineReader f = content == null ? new ByteLineReader(filename, charset) : new ByteLineReader(content, charset);
       boolean quit = false;
       while (!quit) {
          StringBuilder string = new StringBuilder();
@@ -155,13 +334,14 @@ public class FileParser {
             string.replace(string.length()-2, string.length(), "");
             string.append(' ');
          }
-         Line line = new Line(string.toString());
+         Line line = new Line(string.toString(), ++this.lineCounter);
          if (line.isempty()) {
             continue;
          } else if (line.isseparator()) {
-            if (!part.getParagraphs().isEmpty()) {
-               this.text.addPart(part);
+            if (!partIsEmpty) {
+               this.addPart(part);
                part = new Part(++partCounter);
+               partIsEmpty = true;
             }
          } else if (line.text.startsWith("#")) {
             line.pos++;
@@ -172,12 +352,15 @@ public class FileParser {
                eatColonOrDie(line);
                String val = getRestOfLine(line).trim();
                if (val.equals("") || val == null) {
-                  throw new ParseException("can't understand `"+key+"'.", Line.getLineCounter());
+                  throw new ParseException("can't understand `"+key+"'.", line.getLineNumber());
                   // the line will be ignored
                }
                //System.out.printf("Found: key=%s, val=%s\n", key, val);
                if (key.equals("additionnaltoken") || key.equals("additionnal_token")) {
+                  // the paragraphs already read keep the trie they have
+                  // been given
                   this.additionnal_tokens.add(val);
+                  this.additionnalTokenTrie = null;
                   System.out.println("Found additional token: "+val);
                } else if (key.equals("part-type") || key.equals("parttype")) {
                   part.setType(val);
@@ -186,23 +369,43 @@ public class FileParser {
                } else if (key.equals("part-heading") || key.equals("partheading")) {
                   //TODO
                } else {
-                  throw new ParseException("unknown line: '"+line.text+"'", Line.getLineCounter());
+                  throw new ParseException("unknown line: '"+line.text+"'", line.getLineNumber());
                   // the line will be ignored
                }
             } catch (ParseException err) {
                System.out.println("Ignoring line: '"+line.text+"'");
             }
          } else {
-            Paragraph par = new Paragraph(parCounter++);
-            parseParagraph(line, par.getTokens(), par.getAnnotations());
-            part.addParagraph(par);
+            Paragraph par = new Paragraph(parCounter++, this.pool);
+            if (this.additionnalTokenTrie == null) {
+               this.additionnalTokenTrie = new TokenTrie(this.additionnal_tokens);
+            }
+            ParagraphParser parser = new ParagraphParser(line, par, part, this.additionnalTokenTrie, this.pool);
+            partIsEmpty = false;
+            if (this.splitParagraphs) {
+               this.pendingParagraphs.add(parser);
+            } else {
+               parser.parse();
+               this.addParagraph(parser);
+            }
             //System.out.println(par);
          }
       }
-      if (!part.getParagraphs().isEmpty()) {
-         this.text.addPart(part);
+      if (!partIsEmpty) {
+         this.addPart(part);
       }
       f.close();
+      if (this.splitParagraphs) {
+         this.parseParagraphs(this.pendingParagraphs);
+         for (ParagraphParser parser : this.pendingParagraphs) {
+            this.addParagraph(parser);
+         }
+         for (Part p : this.pendingParts) {
+            this.text.addPart(p);
+         }
+         this.pendingParagraphs = null;
+         this.pendingParts = null;
+      }
    }
    
    public Text getText() {
@@ -211,21 +414,17 @@ public class FileParser {
 
 }
 
-
 class Line{
-   private static int lineCounter = 0;
+   private int lineNumber;
    public String text;
    public int pos;
-   public Line(String text) {
+   public Line(String text, int lineNumber) {
       this.text = text.trim();
       this.pos = 0;
-      Line.lineCounter++;
+      this.lineNumber = lineNumber;
    }
-   public static int getLineCounter() {
-      return Line.lineCounter;
-   }
-   public static void resetLineCounter() {
-      Line.lineCounter = 0;
+   public int getLineNumber() {
+      return this.lineNumber;
    }
    public char nextChar() {
       if (this.pos < this.text.length()) {
@@ -243,7 +442,8 @@ class Line{
       return this.text.equals("");
    }
    public void eatWhite() {
-      while (this.nextChar() != 0 && this.nextChar() == ' ') this.pos++;
+      int length = this.text.length();
+      while (this.pos < length && this.text.charAt(this.pos) == ' ') this.pos++;
    }
    public boolean isseparator() {
       for (int i = 0; i < this.text.length(); i++) {
@@ -256,3 +456,76 @@ class Line{
    }
  
 }
+
+
+/* A trie of the additional tokens of a file.  Tokens are only looked for at
+ * the start of a token of the paragraph, so the trie is walked from that
+ * position and there is no need for failure links.
+ */
+class TokenTrie {
+   private static class Node {
+      private char[] keys = new char[0];
+      private Node[] children = new Node[0];
+      // indexes of the tokens ending at this node, in ascending order
+      private int[] indexes = new int[0];
+
+      public Node getChild(char c) {
+         for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] == c) return this.children[i];
+         }
+         return null;
+      }
+
+      public Node addChild(char c) {
+         Node child = this.getChild(c);
+         if (child == null) {
+            child = new Node();
+            this.keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+            this.children = Arrays.copyOf(this.children, this.children.length + 1);
+            this.keys[this.keys.length - 1] = c;
+            this.children[this.children.length - 1] = child;
+         }
+         return child;
+      }
+   }
+
+   private Node root;
+   private String[] tokens;
+
+   public TokenTrie(List<String> tokens) {
+      this.root = new Node();
+      this.tokens = tokens.toArray(new String[tokens.size()]);
+      for (int index = 0; index < this.tokens.length; index++) {
+         Node node = this.root;
+         String token = this.tokens[index];
+         for (int i = 0; i < token.length(); i++) {
+            node = node.addChild(token.charAt(i));
+         }
+         node.indexes = Arrays.copyOf(node.indexes, node.indexes.length + 1);
+         node.indexes[node.indexes.length - 1] = index;
+      }
+   }
+
+   /* Returns the smallest index, not less than minIndex, of a token that
+    * starts at pos in text, or -1 if there is none.
+    */
+   public int match(String text, int pos, int minIndex) {
+      int best = -1;
+      Node node = this.root;
+      for (int i = pos; i < text.length(); i++) {
+         node = node.getChild(text.charAt(i));
+         if (node == null) break;
+         for (int index : node.indexes) {
+            if (index >= minIndex) {
+               if (best == -1 || index < best) best = index;
+               break;
+            }
+         }
+      }
+      return best;
+   }
+
+   public String getToken(int index) {
+      return this.tokens[index];
+   }
+}
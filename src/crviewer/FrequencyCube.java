@@ -0,0 +1,191 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/* Frequencies of each property value of a chain collection (the columns, in
+ * the order of getPropertyList() and getPropertyMap()), for a list of chunks
+ * or for the chains of the collection (the rows).  Everything is counted in
+ * one pass over the annotations of the rows, so that tables, pies and TSV
+ * files don't count each cell again.  The counts are the same as those of
+ * TextChunk.getPropertyFreq() and Chain.getPropertyFreq().
+ */
+public class FrequencyCube {
+
+   private ArrayList<String> columnNames;
+   private ArrayList<String> columnValues;
+   private HashMap<String,HashMap<String,Integer>> columnIndex;
+   private IdentityHashMap<Object,Integer> rowIndex;
+   // row after row, one count per column
+   private int[] counts;
+   // columns of the properties stored with ids, by key id and value id, and
+   // of the expansion flags, by flag and bit
+   private int[][] valueColumns;
+   private int[][] flagColumns;
+
+   /* Frequencies in the chunks, of the annotations which are in the
+    * collection.
+    */
+   public FrequencyCube(ChainCollection chainColl, List<? extends TextChunk> chunks) {
+      this.createColumns(chainColl);
+      this.createRows(chunks);
+      for (int row = 0; row < chunks.size(); row++) {
+         for (Annotation annot : chunks.get(row).getAnnotations()) {
+            if (chainColl.containsAnnotation(annot)) this.count(row, annot);
+         }
+      }
+   }
+
+   /* Frequencies in the chains of the collection. */
+   public FrequencyCube(ChainCollection chainColl) {
+      this.createColumns(chainColl);
+      Chain[] chains = chainColl.getChains();
+      List<Chain> rows = new ArrayList<>(chains.length);
+      for (Chain chain : chains) rows.add(chain);
+      this.createRows(rows);
+      for (int row = 0; row < chains.length; row++) {
+         for (Annotation annot : chains[row].getAnnotations()) {
+            this.count(row, annot);
+         }
+      }
+   }
+
+   private void createColumns(ChainCollection chainColl) {
+      this.columnNames = new ArrayList<>();
+      this.columnValues = new ArrayList<>();
+      this.columnIndex = new HashMap<>();
+      for (String propName : chainColl.getPropertyList()) {
+         HashMap<String,Integer> values = new HashMap<>();
+         this.columnIndex.put(propName, values);
+         for (String propValue : chainColl.getPropertyMap().get(propName)) {
+            values.put(propValue, this.columnNames.size());
+            this.columnNames.add(propName);
+            this.columnValues.add(propValue);
+         }
+      }
+      PropertySchema schema = chainColl.getAnnotations().isEmpty() ? new PropertySchema()
+            : chainColl.getAnnotations().get(0).getPropertySchema();
+      this.valueColumns = new int[schema.getKeyCount()][];
+      this.flagColumns = new int[ExpansionFlags.getFlagCount()][];
+      for (int col = 0; col < this.columnNames.size(); col++) {
+         String propName = this.columnNames.get(col);
+         int keyId = schema.getKeyId(propName);
+         int flag = ExpansionFlags.getFlagOfKey(propName);
+         if (keyId != -1) {
+            if (this.valueColumns[keyId] == null) {
+               this.valueColumns[keyId] = newColumnArray(schema.getValueCount());
+            }
+            this.valueColumns[keyId][schema.getValueId(this.columnValues.get(col))] = col;
+         } else if (flag != -1) {
+            if (this.flagColumns[flag] == null) {
+               this.flagColumns[flag] = newColumnArray(2);
+            }
+            this.flagColumns[flag][this.columnValues.get(col).equals("yes") ? 1 : 0] = col;
+         }
+      }
+   }
+
+   private static int[] newColumnArray(int size) {
+      int[] res = new int[size];
+      for (int i = 0; i < size; i++) res[i] = -1;
+      return res;
+   }
+
+   private void createRows(List<?> rows) {
+      this.rowIndex = new IdentityHashMap<>();
+      for (int row = 0; row < rows.size(); row++) {
+         this.rowIndex.put(rows.get(row), row);
+      }
+      this.counts = new int[rows.size() * this.columnNames.size()];
+   }
+
+   private void count(int row, Annotation annot) {
+      int offset = row * this.columnNames.size();
+      for (int i = 0; i < annot.getPropertyCount(); i++) {
+         int[] columns = this.valueColumns[annot.getPropertyKeyId(i)];
+         int col = columns == null ? -1 : columns[annot.getPropertyValueId(i)];
+         if (col != -1) this.counts[offset + col]++;
+      }
+      if (annot.hasExpansion()) {
+         for (int flag = 0; flag < this.flagColumns.length; flag++) {
+            int[] columns = this.flagColumns[flag];
+            if (columns == null) continue;
+            int col = columns[(annot.getExpansionFlags() >>> flag) & 1];
+            if (col != -1) this.counts[offset + col]++;
+         }
+      }
+   }
+
+   public int getColumnCount() {
+      return this.columnNames.size();
+   }
+
+   public String getPropertyName(int col) {
+      return this.columnNames.get(col);
+   }
+
+   public String getPropertyValue(int col) {
+      return this.columnValues.get(col);
+   }
+
+   public int getRowCount() {
+      return this.rowIndex.size();
+   }
+
+   /* Returns the row of the chunk or chain, or -1. */
+   public int getRow(Object chunkOrChain) {
+      Integer row = this.rowIndex.get(chunkOrChain);
+      return row == null ? -1 : row;
+   }
+
+   public int getFreq(int row, int col) {
+      return this.counts[row * this.columnNames.size() + col];
+   }
+
+   public int getFreq(Object chunkOrChain, int col) {
+      return this.getFreq(this.getRow(chunkOrChain), col);
+   }
+
+   public int getFreq(Object chunkOrChain, String propName, String propValue) {
+      HashMap<String,Integer> values = this.columnIndex.get(propName);
+      if (values == null || !values.containsKey(propValue)) return 0;
+      return this.getFreq(chunkOrChain, values.get(propValue));
+   }
+
+   /* Returns the number of annotations having the property. */
+   public int getFreq(Object chunkOrChain, String propName) {
+      HashMap<String,Integer> values = this.columnIndex.get(propName);
+      if (values == null) return 0;
+      int sum = 0;
+      for (int col : values.values()) {
+         sum += this.getFreq(chunkOrChain, col);
+      }
+      return sum;
+   }
+
+}
@@ -22,17 +22,44 @@
 
 package crviewer;
 
+import java.nio.CharBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/* Tokens are stored in columns: the kind of each token, the id of the word
+ * in the token pool (or the character, for a punctuation), and the number of
+ * words before each token, so that the number of words in any span is a
+ * subtraction.
+ *
+ * The text of the paragraph is rendered once, when first needed, in a
+ * character buffer with the offset of each token, so that the text of any
+ * span of tokens is a slice of it.
+ */
 public class Paragraph extends TextChunk {
-   private ArrayList<Token> tokens;
+   public static final byte SPACE = 0;
+   public static final byte PUNCT = 1;
+   public static final byte WORD = 2;
+   private TokenPool pool;
+   private byte[] kinds;
+   private int[] ids;
+   private int[] wordCounts;
+   private int tokenCount;
+   // chars is volatile and set after charOffsets, so both are seen together
+   private volatile String chars;
+   private int[] charOffsets;
    private String textId;
    private int partId;
    private int parId;
 
-   public Paragraph(int parId) {
-      tokens = new ArrayList<>();
+   public Paragraph(int parId, TokenPool pool) {
       annotations = new ArrayList<>();
+      this.pool = pool;
+      this.kinds = new byte[16];
+      this.ids = new int[16];
+      this.wordCounts = new int[17];
+      this.tokenCount = 0;
       this.parId = parId;
       this.partId = 0;
       this.textId = null;
@@ -44,7 +71,7 @@ public class Paragraph extends TextChunk {
          res += " - " + annot.getLeftContext() + "*" + annot.getText() + "*" + annot.getRightContext() + "\n"
                + annot.toString();
       }
-      res += tokens.toString();
+      res += getTokens().toString();
       return res;
    }
 
@@ -52,8 +79,129 @@ public class Paragraph extends TextChunk {
       return annotations;
    }
 
-   public ArrayList<Token> getTokens() {
-      return tokens;
+   public PropertySchema getPropertySchema() {
+      return this.pool.getPropertySchema();
+   }
+
+   private void addToken(byte kind, int id, int wordCount) {
+      if (this.tokenCount == this.kinds.length) {
+         int capacity = this.kinds.length * 2;
+         this.kinds = Arrays.copyOf(this.kinds, capacity);
+         this.ids = Arrays.copyOf(this.ids, capacity);
+         this.wordCounts = Arrays.copyOf(this.wordCounts, capacity + 1);
+      }
+      this.kinds[this.tokenCount] = kind;
+      this.ids[this.tokenCount] = id;
+      this.wordCounts[this.tokenCount + 1] = this.wordCounts[this.tokenCount] + wordCount;
+      this.tokenCount++;
+      this.chars = null;
+   }
+
+   public void addWordToken(WordToken token) {
+      addToken(WORD, token.getId(), 1);
+   }
+
+   public void addSpaceToken() {
+      addToken(SPACE, 0, 0);
+   }
+
+   public void addPunctToken(char c) {
+      addToken(PUNCT, c, 0);
+   }
+
+   /* Replaces the tokens (used when reading a snapshot). */
+   public void setTokens(byte[] kinds, int[] ids) {
+      this.kinds = kinds;
+      this.ids = ids;
+      this.tokenCount = kinds.length;
+      this.wordCounts = new int[kinds.length + 1];
+      for (int i = 0; i < kinds.length; i++) {
+         this.wordCounts[i + 1] = this.wordCounts[i] + (kinds[i] == WORD ? 1 : 0);
+      }
+      this.chars = null;
+   }
+
+   public void trimToSize() {
+      this.kinds = Arrays.copyOf(this.kinds, this.tokenCount);
+      this.ids = Arrays.copyOf(this.ids, this.tokenCount);
+      this.wordCounts = Arrays.copyOf(this.wordCounts, this.tokenCount + 1);
+   }
+
+   public byte getTokenKind(int i) {
+      return this.kinds[i];
+   }
+
+   public int getTokenId(int i) {
+      return this.ids[i];
+   }
+
+   public boolean isWordToken(int i) {
+      return this.kinds[i] == WORD;
+   }
+
+   public Token getToken(int i) {
+      if (i >= this.tokenCount) throw new IndexOutOfBoundsException("token " + i);
+      switch (this.kinds[i]) {
+      case WORD:
+         return this.pool.getWordToken(this.ids[i]);
+      case PUNCT:
+         return PunctToken.get((char)this.ids[i]);
+      default:
+         return SpaceToken.INSTANCE;
+      }
+   }
+
+   /* A read-only view of the tokens. */
+   public List<Token> getTokens() {
+      return new AbstractList<Token>() {
+         @Override
+         public Token get(int i) {
+            return getToken(i);
+         }
+         @Override
+         public int size() {
+            return tokenCount;
+         }
+      };
+   }
+
+   private String getChars() {
+      String chars = this.chars;
+      if (chars == null) {
+         int[] offsets = new int[this.tokenCount + 1];
+         StringBuilder sb = new StringBuilder();
+         for (int i = 0; i < this.tokenCount; i++) {
+            sb.append(getToken(i).toString());
+            offsets[i + 1] = sb.length();
+         }
+         chars = sb.toString();
+         this.charOffsets = offsets;
+         this.chars = chars;
+      }
+      return chars;
+   }
+
+   /* Returns the text of the tokens from..to-1. */
+   public String getText(int from, int to) {
+      String chars = getChars();
+      return chars.substring(this.charOffsets[from], this.charOffsets[to]);
+   }
+
+   /* Returns a view, without copy, of the text of the tokens from..to-1. */
+   public CharSequence getTextView(int from, int to) {
+      String chars = getChars();
+      return CharBuffer.wrap(chars, this.charOffsets[from], this.charOffsets[to]);
+   }
+
+   /* Appends the text of the tokens from..to-1 to the builder. */
+   public StringBuilder appendText(StringBuilder sb, int from, int to) {
+      String chars = getChars();
+      return sb.append(chars, this.charOffsets[from], this.charOffsets[to]);
+   }
+
+   /* Returns the number of words in the tokens from..to-1. */
+   public int getWordTokenCount(int from, int to) {
+      return this.wordCounts[to] - this.wordCounts[from];
    }
 
    public String getTextId() {
@@ -86,16 +234,12 @@ public class Paragraph extends TextChunk {
 
    @Override
    public int getTokenCount() {
-      return this.tokens.size();
+      return this.tokenCount;
    }
    
    @Override
    public int getWordTokenCount() {
-      int res = 0;
-      for (Token token : this.tokens) {
-         if (token instanceof WordToken) res++;
-      }
-      return res;
+      return this.wordCounts[this.tokenCount];
    }
 
 }
@@ -29,6 +29,9 @@ public class Part extends TextChunk implements HasParagraphs {
    private String type;
    private int partId;
    private String textId;
+   // paragraphs are complete when they are added
+   private int tokenCount;
+   private int wordTokenCount;
    
    public Part(int partId) {
       this.paragraphs = new ArrayList<>();
@@ -43,6 +46,8 @@ public class Part extends TextChunk implements HasParagraphs {
       par.setPartId(this.partId);
       paragraphs.add(par);
       annotations.addAll(par.getAnnotations());
+      this.tokenCount += par.getTokenCount();
+      this.wordTokenCount += par.getWordTokenCount();
    }
 
    public String getType() {
@@ -84,24 +89,16 @@ public class Part extends TextChunk implements HasParagraphs {
    }
    
    public int getTokenCount() {
-      int sum = 0;
-      for (Paragraph par : this.paragraphs) {
-         sum += par.getTokenCount();
-      }
-      return sum;
+      return this.tokenCount;
    }
 
    
    public int getWordTokenCount() {
-      int sum = 0;
-      for (Paragraph par : this.paragraphs) {
-         sum += par.getWordTokenCount();
-      }
-      return sum;
+      return this.wordTokenCount;
    }
    
    public int getParagraphCount() {
-      return this.getParagraphs().size();
+      return this.paragraphs.size();
    }
 
 
@@ -26,14 +26,16 @@ import java.util.*;
 
 public class PartType extends TextChunk implements HasParagraphs {
    private ArrayList<Part> parts;
-   private Set<String> partIds;
    private String type;
+   // the parts are fixed once the type is built
+   private int tokenCount;
+   private int wordTokenCount;
+   private List<Paragraph> paragraphs;
 
    public PartType(String type, Corpus corpus, String... moreTypes) {
       this.type = type;
       this.annotations = new ArrayList<>();
       this.parts = new ArrayList<>();
-      this.partIds = new HashSet<>();
       Set<String> types = new HashSet<String>();
       types.add(type);
       for (String s : moreTypes) types.add(s);
@@ -42,12 +44,18 @@ public class PartType extends TextChunk implements HasParagraphs {
          if (types.contains(part.getType())) {
             //System.out.println("... adding " + part.getType());
             parts.add(part);
-            partIds.add(part.getId());
             this.annotations.addAll(part.getAnnotations());
          } else {
             //System.out.println("... rejecting " + part.getType());
          }
       }
+      ArrayList<Paragraph> pars = new ArrayList<>();
+      for (Part part : this.parts) {
+         this.tokenCount += part.getTokenCount();
+         this.wordTokenCount += part.getWordTokenCount();
+         pars.addAll(part.getParagraphs());
+      }
+      this.paragraphs = Collections.unmodifiableList(pars);
    }
 
 
@@ -64,84 +72,31 @@ public class PartType extends TextChunk implements HasParagraphs {
    }
 
    public int getTokenCount() {
-      int sum = 0;
-      for (Part part : this.parts) {
-         for (Paragraph par : part.getParagraphs()) {
-            sum += par.getTokenCount();
-         }
-      }
-      return sum;
+      return this.tokenCount;
    }
 
 
    public int getWordTokenCount() {
-      int sum = 0;
-      for (Part part : this.parts) {
-         for (Paragraph par : part.getParagraphs()) {
-            sum += par.getWordTokenCount();
-         }
-      }
-      return sum;
+      return this.wordTokenCount;
    }
 
+   /* The chains of the parts of this type. */
    @Override
-   public double getAverageLinkToLinkDistance(ChainCollection chainColl) {
-      int sum = 0;
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.partIds.contains(chain.getId())) {
-            sum += chain.getAverageLinkToLinkDistance();
-            count++;
-         }
-      }
-      return ((double)sum) / ((double)count);
-   }
-   
-   @Override
-   public double getAverageLinkLength(ChainCollection chainColl) {
-      int sum = 0;
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.partIds.contains(chain.getId())) {
-            sum += chain.getAverageLinkLength();
-            count++;
-         }
-      }
-      return ((double)sum) / ((double)count);
-   }
-   
-   @Override
-   public int getChainCount(ChainCollection chainColl) {
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.partIds.contains(chain.getId())) {
-            count++;
-         }
-      }
-      return count;
-   }
-
-   @Override
-   public int getLinkCount(ChainCollection chainColl) {
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.partIds.contains(chain.getId())) {
-            count += chain.getAnnotations().size();
-         }
+   public List<Chain> getChains(ChainCollection chainColl) {
+      ArrayList<Chain> chains = new ArrayList<>();
+      for (Part part : this.parts) {
+         chains.addAll(chainColl.getChains(part.getId()));
       }
-      return count;
+      return chains;
    }
    
-   public ArrayList<Paragraph> getParagraphs() {
-      ArrayList<Paragraph> pars = new ArrayList<>();
-      for (Part part : this.parts) {
-         pars.addAll(part.getParagraphs());
-      }
-      return pars;
+   /* A read-only list. */
+   public List<Paragraph> getParagraphs() {
+      return this.paragraphs;
    }
    
    public int getParagraphCount() {
-      return this.getParagraphs().size();
+      return this.paragraphs.size();
    }
 
    
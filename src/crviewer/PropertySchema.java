@@ -0,0 +1,119 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Property keys and values of a corpus, each with an int id, so that
+ * annotations only store pairs of ids.  A corpus uses a few dozen keys and a
+ * few hundred values at most.  The schema may be used by several parsers at
+ * once.
+ */
+public class PropertySchema {
+
+   private static class Dictionary {
+      private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+      // written under the lock of the dictionary, and only replaced by a
+      // larger copy
+      private volatile String[] strings = new String[64];
+      private int count = 0;
+
+      public int getId(String s) {
+         if (s == null) return -1;
+         Integer id = this.ids.get(s);
+         return id == null ? -1 : id;
+      }
+
+      public int addString(String s) {
+         Integer id = this.ids.get(s);
+         if (id != null) return id;
+         return this.addNewString(s);
+      }
+
+      private synchronized int addNewString(String s) {
+         Integer id = this.ids.get(s);
+         if (id != null) return id;
+         String[] strings = this.strings;
+         if (this.count == strings.length) {
+            strings = Arrays.copyOf(strings, strings.length * 2);
+         }
+         strings[this.count] = s;
+         this.strings = strings;
+         this.ids.put(s, this.count);
+         return this.count++;
+      }
+
+      public String getString(int id) {
+         return this.strings[id];
+      }
+
+      public synchronized int size() {
+         return this.count;
+      }
+   }
+
+   private Dictionary keys;
+   private Dictionary values;
+
+   public PropertySchema() {
+      this.keys = new Dictionary();
+      this.values = new Dictionary();
+   }
+
+   /* Returns the id of the key, or -1 if no annotation has it. */
+   public int getKeyId(String key) {
+      return this.keys.getId(key);
+   }
+
+   public int addKey(String key) {
+      return this.keys.addString(key);
+   }
+
+   public String getKey(int id) {
+      return this.keys.getString(id);
+   }
+
+   public int getKeyCount() {
+      return this.keys.size();
+   }
+
+   /* Returns the id of the value, or -1 if no annotation has it. */
+   public int getValueId(String value) {
+      return this.values.getId(value);
+   }
+
+   public int addValue(String value) {
+      return this.values.addString(value);
+   }
+
+   public String getValue(int id) {
+      return this.values.getString(id);
+   }
+
+   public int getValueCount() {
+      return this.values.size();
+   }
+
+}
@@ -0,0 +1,196 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/* Statistics of a list of chunks (the rows) for a chain collection, all
+ * computed in one pass over the chains of each chunk, and stored by column.
+ * The values are the same as those of the TextChunk methods.  The paragraph
+ * and part counts are -1 for the chunks which don't have them.
+ */
+public class StatsEngine {
+
+   public enum Stat {
+      AverageLinkToLinkDistance, AverageLinkLength, AverageChainSize, ChainCount, LinkCount, StabilityCoeff,
+      ChainDensity, LinkDensity, AnnotationDensity, WordTokenCount, TokenCount, ParagraphCount, PartCount
+   }
+
+   private IdentityHashMap<TextChunk,Integer> rowIndex;
+   private String[] ids;
+   private int[] chainCounts;
+   private int[] linkCounts;
+   private double[] averageLinkToLinkDistances;
+   private double[] averageLinkLengths;
+   private double[] stabilityCoeffs;
+   private int[] annotationCounts;
+   private int[] wordTokenCounts;
+   private int[] tokenCounts;
+   private int[] paragraphCounts;
+   private int[] partCounts;
+
+   public StatsEngine(ChainCollection chainColl, List<? extends TextChunk> chunks) {
+      int size = chunks.size();
+      this.rowIndex = new IdentityHashMap<>();
+      this.ids = new String[size];
+      this.chainCounts = new int[size];
+      this.linkCounts = new int[size];
+      this.averageLinkToLinkDistances = new double[size];
+      this.averageLinkLengths = new double[size];
+      this.stabilityCoeffs = new double[size];
+      this.annotationCounts = new int[size];
+      this.wordTokenCounts = new int[size];
+      this.tokenCounts = new int[size];
+      this.paragraphCounts = new int[size];
+      this.partCounts = new int[size];
+      for (int row = 0; row < size; row++) {
+         TextChunk chunk = chunks.get(row);
+         this.rowIndex.put(chunk, row);
+         this.ids[row] = chunk.getId();
+         // int sums, as in TextChunk
+         int linkToLinkDistanceSum = 0;
+         int linkLengthSum = 0;
+         double stabilityCoeffSum = 0;
+         int linkCount = 0;
+         List<Chain> chains = chunk.getChains(chainColl);
+         for (Chain chain : chains) {
+            linkToLinkDistanceSum += chain.getAverageLinkToLinkDistance();
+            linkLengthSum += chain.getAverageLinkLength();
+            stabilityCoeffSum += chain.getStabilityCoeff();
+            linkCount += chain.getAnnotations().size();
+         }
+         double chainCount = chains.size();
+         this.chainCounts[row] = chains.size();
+         this.linkCounts[row] = linkCount;
+         this.averageLinkToLinkDistances[row] = ((double)linkToLinkDistanceSum) / chainCount;
+         this.averageLinkLengths[row] = ((double)linkLengthSum) / chainCount;
+         this.stabilityCoeffs[row] = stabilityCoeffSum / chainCount;
+         this.annotationCounts[row] = chunk.annotationCount();
+         this.wordTokenCounts[row] = chunk.getWordTokenCount();
+         this.tokenCounts[row] = chunk.getTokenCount();
+         this.paragraphCounts[row] = chunk instanceof HasParagraphs ? ((HasParagraphs)chunk).getParagraphCount() : -1;
+         this.partCounts[row] = chunk instanceof HasParts ? ((HasParts)chunk).getPartCount() : -1;
+      }
+   }
+
+   public int getRowCount() {
+      return this.ids.length;
+   }
+
+   /* Returns the row of the chunk, or -1. */
+   public int getRow(TextChunk chunk) {
+      Integer row = this.rowIndex.get(chunk);
+      return row == null ? -1 : row;
+   }
+
+   public String getId(int row) {
+      return this.ids[row];
+   }
+
+   public int getChainCount(int row) {
+      return this.chainCounts[row];
+   }
+
+   public int getLinkCount(int row) {
+      return this.linkCounts[row];
+   }
+
+   public double getAverageLinkToLinkDistance(int row) {
+      return this.averageLinkToLinkDistances[row];
+   }
+
+   public double getAverageLinkLength(int row) {
+      return this.averageLinkLengths[row];
+   }
+
+   public double getStabilityCoeff(int row) {
+      return this.stabilityCoeffs[row];
+   }
+
+   public double getAverageChainSize(int row) {
+      return ((double)this.linkCounts[row]) / ((double)this.chainCounts[row]);
+   }
+
+   public double getChainDensity(int row) {
+      return ((double)this.chainCounts[row]) / ((double)this.wordTokenCounts[row]);
+   }
+
+   public double getLinkDensity(int row) {
+      return ((double)this.linkCounts[row]) / ((double)this.wordTokenCounts[row]);
+   }
+
+   public double getAnnotationDensity(int row) {
+      return ((double)this.annotationCounts[row]) / ((double)this.wordTokenCounts[row]);
+   }
+
+   public int getWordTokenCount(int row) {
+      return this.wordTokenCounts[row];
+   }
+
+   public int getTokenCount(int row) {
+      return this.tokenCounts[row];
+   }
+
+   public int getParagraphCount(int row) {
+      return this.paragraphCounts[row];
+   }
+
+   public int getPartCount(int row) {
+      return this.partCounts[row];
+   }
+
+   /* Returns the value as an Integer for counts, and as a Double otherwise. */
+   public Number getValue(Stat stat, int row) {
+      switch (stat) {
+      case AverageLinkToLinkDistance:
+         return this.getAverageLinkToLinkDistance(row);
+      case AverageLinkLength:
+         return this.getAverageLinkLength(row);
+      case AverageChainSize:
+         return this.getAverageChainSize(row);
+      case ChainCount:
+         return this.getChainCount(row);
+      case LinkCount:
+         return this.getLinkCount(row);
+      case StabilityCoeff:
+         return this.getStabilityCoeff(row);
+      case ChainDensity:
+         return this.getChainDensity(row);
+      case LinkDensity:
+         return this.getLinkDensity(row);
+      case AnnotationDensity:
+         return this.getAnnotationDensity(row);
+      case WordTokenCount:
+         return this.getWordTokenCount(row);
+      case TokenCount:
+         return this.getTokenCount(row);
+      case ParagraphCount:
+         return this.getParagraphCount(row);
+      default:
+         return this.getPartCount(row);
+      }
+   }
+
+}
@@ -23,15 +23,19 @@
 package crviewer;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
 
 public class Text extends TextChunk implements HasParagraphs, HasParts {
-   private static int textCounter = 0;
-   private static HashSet<String> textIds = new HashSet<>();
    private String filename;
    private String title;
    private ArrayList<Part> parts;
    private String textId;
+   // parts are complete when they are added
+   private int tokenCount;
+   private int wordTokenCount;
+   private int paragraphCount;
+   private List<Paragraph> paragraphs;
 
    public String getFilename() {
       return filename;
@@ -53,12 +57,16 @@ public class Text extends TextChunk implements HasParagraphs, HasParts {
       return parts;
    }
 
-   public ArrayList<Paragraph> getParagraphs() {
-      ArrayList<Paragraph> pars = new ArrayList<>();
-      for (Part part : this.parts) {
-         pars.addAll(part.getParagraphs());
+   /* A read-only list, kept until a part is added. */
+   public List<Paragraph> getParagraphs() {
+      if (this.paragraphs == null) {
+         ArrayList<Paragraph> pars = new ArrayList<>(this.paragraphCount);
+         for (Part part : this.parts) {
+            pars.addAll(part.getParagraphs());
+         }
+         this.paragraphs = Collections.unmodifiableList(pars);
       }
-      return pars;
+      return this.paragraphs;
    }
 
    public Text(String filename) {
@@ -66,21 +74,20 @@ public class Text extends TextChunk implements HasParagraphs, HasParts {
       this.title = "";
       this.parts = new ArrayList<>();
       this.annotations = new ArrayList<>();
-      this.textId = String.format("t%02d", Text.textCounter);
-      Text.textCounter++;
+      this.textId = null;
    }
 
    public void addPart(Part part) {
       part.setTextId(this.textId);
       parts.add(part);
       this.annotations.addAll(part.getAnnotations());
+      this.tokenCount += part.getTokenCount();
+      this.wordTokenCount += part.getWordTokenCount();
+      this.paragraphCount += part.getParagraphCount();
+      this.paragraphs = null;
    }
 
    public void setTextId(String textId) {
-      if (Text.textIds.contains(textId)) {
-         throw new RuntimeException("The text id: `"+textId+"' is already used.");
-      }
-      Text.textIds.add(textId);
       this.textId = textId;
       for (Part part : parts) {
          part.setTextId(this.textId);
@@ -92,27 +99,15 @@ public class Text extends TextChunk implements HasParagraphs, HasParts {
    }
 
    public int getTokenCount() {
-      int sum = 0;
-      for (Part part : this.parts) {
-         for (Paragraph par : part.getParagraphs()) {
-            sum += par.getTokenCount();
-         }
-      }
-      return sum;
+      return this.tokenCount;
    }
    
    public int getWordTokenCount() {
-      int sum = 0;
-      for (Part part : this.parts) {
-         for (Paragraph par : part.getParagraphs()) {
-            sum += par.getWordTokenCount();
-         }
-      }
-      return sum;
+      return this.wordTokenCount;
    }
 
    public int getParagraphCount() {
-      return this.getParagraphs().size();
+      return this.paragraphCount;
    }
    
    public int getPartCount() {
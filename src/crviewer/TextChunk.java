@@ -42,6 +42,11 @@ public abstract class TextChunk {
       return this.annotations.size();
    }
 
+   /* To be called when the annotations have changed. */
+   protected void resetPropertyList() {
+      this.propertyList = null;
+   }
+
    public ArrayList<String> getPropertyList() {
       if (this.propertyList == null) {
          Set<String> props = new HashSet<>();
@@ -89,14 +94,17 @@ public abstract class TextChunk {
       return freq;
    }
    
+   /* Returns the chains of the collection found in this chunk. */
+   public List<Chain> getChains(ChainCollection chainColl) {
+      return chainColl.getChains(this.getId());
+   }
+
    public double getAverageLinkToLinkDistance(ChainCollection chainColl) {
       int sum = 0;
       int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.getId().equals(chain.getId())) {
-            sum += chain.getAverageLinkToLinkDistance();
-            count++;
-         }
+      for (Chain chain : this.getChains(chainColl)) {
+         sum += chain.getAverageLinkToLinkDistance();
+         count++;
       }
       return ((double)sum) / ((double)count);
    }
@@ -104,11 +112,9 @@ public abstract class TextChunk {
    public double getStabilityCoeff(ChainCollection chainColl) {
       double sum = 0;
       int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.getId().equals(chain.getId())) {
-            sum += chain.getStabilityCoeff();
-            count++;
-         }
+      for (Chain chain : this.getChains(chainColl)) {
+         sum += chain.getStabilityCoeff();
+         count++;
       }
       return sum / ((double)count);
    }
@@ -116,31 +122,21 @@ public abstract class TextChunk {
    public double getAverageLinkLength(ChainCollection chainColl) {
       int sum = 0;
       int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.getId().equals(chain.getId())) {
-            sum += chain.getAverageLinkLength();
-            count++;
-         }
+      for (Chain chain : this.getChains(chainColl)) {
+         sum += chain.getAverageLinkLength();
+         count++;
       }
       return ((double)sum) / ((double)count);
    }
    
    public int getChainCount(ChainCollection chainColl) {
-      int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.getId().equals(chain.getId())) {
-            count++;
-         }
-      }
-      return count;
+      return this.getChains(chainColl).size();
    }
 
    public int getLinkCount(ChainCollection chainColl) {
       int count = 0;
-      for (Chain chain : chainColl.getChains()) {
-         if (this.getId().equals(chain.getId())) {
-            count += chain.getAnnotations().size();
-         }
+      for (Chain chain : this.getChains(chainColl)) {
+         count += chain.getAnnotations().size();
       }
       return count;
    }
@@ -23,31 +23,42 @@
 package crviewer;
 
 public abstract class Token {
-   protected static int tokenCount = 0;
    protected String text;
    public String toString() {
       return this.text;
    }
-   public static int getTokenCount() {
-      return tokenCount;
-   }
 }
 
 class SpaceToken extends Token {
-   public SpaceToken() {
+   public static final SpaceToken INSTANCE = new SpaceToken();
+   private SpaceToken() {
       this.text = " ";
    }
 }
 
 class PunctToken extends Token {
-   public PunctToken(String text) {
+   private static final PunctToken[] LATIN1 = new PunctToken[256];
+   static {
+      for (char c = 0; c < LATIN1.length; c++) {
+         LATIN1[c] = new PunctToken(String.valueOf(c));
+      }
+   }
+   private PunctToken(String text) {
       this.text = text;
    }
+   public static PunctToken get(char c) {
+      if (c < LATIN1.length) return LATIN1[c];
+      return new PunctToken(String.valueOf(c));
+   }
 }
 
 class WordToken extends Token {
-   public WordToken(String text) {
-      Token.tokenCount++;
+   private int id;
+   public WordToken(String text, int id) {
       this.text = text;
-   }   
+      this.id = id;
+   }
+   public int getId() {
+      return this.id;
+   }
 }
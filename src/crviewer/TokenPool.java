@@ -0,0 +1,88 @@
+/*
+ *
+ * CRViewer -- Computer co-reference chain statistics.
+ * 
+ * Copyright 2016-2017 Bruno Oberlé.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/.
+ * 
+ * This program comes with ABSOLUTELY NO WARRANTY.  See the Mozilla Public
+ * License, v. 2.0 for more details.
+ * 
+ * Some questions about the license may have been answered at
+ * https://www.mozilla.org/en-US/MPL/2.0/FAQ/.
+ * 
+ * If you have any question, contact me at boberle.com.
+ * 
+ * The source code can be found at boberle.com.
+ *
+ */
+
+
+package crviewer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Shared tokens and strings of a corpus.  Tokens are immutable, so a single
+ * WordToken is kept for each distinct word, and a single PunctToken for each
+ * punctuation character.  Each distinct word also gets an id, which is what
+ * paragraphs store.  The pool also holds the property schema of the corpus.
+ * The pool may be used by several parsers at once.
+ */
+public class TokenPool {
+
+   private ConcurrentHashMap<String, WordToken> words;
+   // written under the lock of the pool, and only replaced by a larger copy
+   private volatile WordToken[] wordsById;
+   private int wordCount;
+   private PropertySchema propertySchema;
+
+   public TokenPool() {
+      this.words = new ConcurrentHashMap<>();
+      this.wordsById = new WordToken[1024];
+      this.wordCount = 0;
+      this.propertySchema = new PropertySchema();
+   }
+
+   public PropertySchema getPropertySchema() {
+      return this.propertySchema;
+   }
+
+   public WordToken getWordToken(String word) {
+      WordToken token = this.words.get(word);
+      if (token == null) {
+         token = this.addWordToken(word);
+      }
+      return token;
+   }
+
+   private synchronized WordToken addWordToken(String word) {
+      WordToken token = this.words.get(word);
+      if (token != null) return token;
+      WordToken[] byId = this.wordsById;
+      if (this.wordCount == byId.length) {
+         byId = Arrays.copyOf(byId, byId.length * 2);
+      }
+      token = new WordToken(word, this.wordCount);
+      byId[this.wordCount++] = token;
+      this.wordsById = byId;
+      this.words.put(word, token);
+      return token;
+   }
+
+   public WordToken getWordToken(int id) {
+      return this.wordsById[id];
+   }
+
+   public String intern(String s) {
+      return this.getWordToken(s).toString();
+   }
+
+   public synchronized int getWordCount() {
+      return this.wordCount;
+   }
+
+}